@@ -1,13 +1,19 @@
 package fr.insee.trevas.lab;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import fr.insee.trevas.lab.dataset.InlineBindingsDeserializer;
 import fr.insee.vtl.jackson.TrevasModule;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Primary;
 
+import javax.script.Bindings;
+import java.nio.file.Path;
+
 @SpringBootApplication
 public class TrevasLabApplication {
 
@@ -17,10 +23,17 @@ public class TrevasLabApplication {
 
     @Bean
     @Primary
-    public ObjectMapper objectMapper() {
+    public ObjectMapper objectMapper(@Value("${app.columnar.off-heap:false}") boolean offHeap,
+                                     @Value("${app.inline.spill-threshold-bytes:67108864}") long spillThresholdBytes,
+                                     @Value("${app.memory.spill-dir:${java.io.tmpdir}/trevas-lab-spill}") String spillDirectory) {
+        // Registered last, so that it takes precedence over the bindings deserializer of the TrevasModule
+        SimpleModule inlineBindings = new SimpleModule("InlineBindings")
+                .addDeserializer(Bindings.class,
+                        new InlineBindingsDeserializer(offHeap, spillThresholdBytes, Path.of(spillDirectory)));
         return new ObjectMapper()
                 .registerModule(new TrevasModule())
-                .registerModule(new JavaTimeModule());
+                .registerModule(new JavaTimeModule())
+                .registerModule(inlineBindings);
     }
 
 }
@@ -0,0 +1,92 @@
+package fr.insee.trevas.lab.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Component
+@ConfigurationProperties(prefix = "app.quotas")
+public class QuotaProperties {
+
+    /**
+     * "user" gives a Spark scheduler pool to each user, "group" to the first group of the user.
+     */
+    private String poolBy = "user";
+    private int maxConcurrentJobs = 4;
+    private int maxRows = 100000;
+    private Map<String, Pool> pools = new HashMap<>();
+
+    public String getPoolBy() {
+        return poolBy;
+    }
+
+    public void setPoolBy(String poolBy) {
+        this.poolBy = poolBy;
+    }
+
+    public int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    public Map<String, Pool> getPools() {
+        return pools;
+    }
+
+    public void setPools(Map<String, Pool> pools) {
+        this.pools = pools;
+    }
+
+    public static class Pool {
+
+        private int weight = 1;
+        private int minShare = 0;
+        private Integer maxConcurrentJobs;
+        private Integer maxRows;
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
+        public int getMinShare() {
+            return minShare;
+        }
+
+        public void setMinShare(int minShare) {
+            this.minShare = minShare;
+        }
+
+        public Integer getMaxConcurrentJobs() {
+            return maxConcurrentJobs;
+        }
+
+        public void setMaxConcurrentJobs(Integer maxConcurrentJobs) {
+            this.maxConcurrentJobs = maxConcurrentJobs;
+        }
+
+        public Integer getMaxRows() {
+            return maxRows;
+        }
+
+        public void setMaxRows(Integer maxRows) {
+            this.maxRows = maxRows;
+        }
+    }
+}
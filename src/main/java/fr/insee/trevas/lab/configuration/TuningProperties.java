@@ -0,0 +1,90 @@
+package fr.insee.trevas.lab.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+@ConfigurationProperties(prefix = "app.tuning")
+public class TuningProperties {
+
+    /**
+     * Named presets of Spark SQL settings.
+     */
+    private Map<String, Map<String, String>> profiles = new HashMap<>();
+    /**
+     * Profile of the jobs that do not name one, none by default.
+     */
+    private String defaultProfile;
+    /**
+     * Settings a job may override, a trailing "*" allowing a whole prefix.
+     */
+    private List<String> allowedOverrides = new ArrayList<>();
+    private long targetPartitionBytes = 128L * 1024 * 1024;
+    private int minPartitions = 8;
+    private int maxPartitions = 2048;
+    /**
+     * Tuned sessions kept for reuse, one per distinct configuration.
+     */
+    private int sessionCacheSize = 32;
+
+    public Map<String, Map<String, String>> getProfiles() {
+        return profiles;
+    }
+
+    public void setProfiles(Map<String, Map<String, String>> profiles) {
+        this.profiles = profiles;
+    }
+
+    public String getDefaultProfile() {
+        return defaultProfile;
+    }
+
+    public void setDefaultProfile(String defaultProfile) {
+        this.defaultProfile = defaultProfile;
+    }
+
+    public List<String> getAllowedOverrides() {
+        return allowedOverrides;
+    }
+
+    public void setAllowedOverrides(List<String> allowedOverrides) {
+        this.allowedOverrides = allowedOverrides;
+    }
+
+    public long getTargetPartitionBytes() {
+        return targetPartitionBytes;
+    }
+
+    public void setTargetPartitionBytes(long targetPartitionBytes) {
+        this.targetPartitionBytes = targetPartitionBytes;
+    }
+
+    public int getMinPartitions() {
+        return minPartitions;
+    }
+
+    public void setMinPartitions(int minPartitions) {
+        this.minPartitions = minPartitions;
+    }
+
+    public int getMaxPartitions() {
+        return maxPartitions;
+    }
+
+    public void setMaxPartitions(int maxPartitions) {
+        this.maxPartitions = maxPartitions;
+    }
+
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+}
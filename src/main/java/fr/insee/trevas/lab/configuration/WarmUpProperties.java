@@ -0,0 +1,55 @@
+package fr.insee.trevas.lab.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "app.warmup")
+public class WarmUpProperties {
+
+    private boolean enabled = true;
+    private int iterations = 3;
+    /**
+     * VTL scripts evaluated in memory before the pod reports ready, "crabe" being the bundled dataset.
+     */
+    private List<String> scripts = new ArrayList<>();
+    /**
+     * Creates the Spark session in the background once ready, instead of on the first Spark request.
+     */
+    private boolean spark = false;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public List<String> getScripts() {
+        return scripts;
+    }
+
+    public void setScripts(List<String> scripts) {
+        this.scripts = scripts;
+    }
+
+    public boolean isSpark() {
+        return spark;
+    }
+
+    public void setSpark(boolean spark) {
+        this.spark = spark;
+    }
+}
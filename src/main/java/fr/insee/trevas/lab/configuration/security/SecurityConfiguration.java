@@ -23,6 +23,9 @@ public class SecurityConfiguration {
     @Value("${jwt.username-claim}")
     private String usernameClaim;
 
+    @Value("${jwt.groups-claim:groups}")
+    private String groupsClaim;
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         if (!securityEnabled) {
@@ -36,6 +39,7 @@ public class SecurityConfiguration {
             http.csrf(AbstractHttpConfigurer::disable)
                     .authorizeHttpRequests(authorize -> authorize
                             .requestMatchers("/public").permitAll()  // Endpoint public
+                            .requestMatchers("/actuator/health/**").permitAll()  // Sondes Kubernetes
                             .anyRequest().authenticated()
                     )
                     .oauth2Login(oauth2 -> oauth2
@@ -55,6 +59,7 @@ public class SecurityConfiguration {
             final Jwt jwt = (Jwt) auth.getPrincipal();
             user.setId(jwt.getClaimAsString(usernameClaim));
             user.setAuthToken(jwt.getTokenValue());
+            user.setGroups(jwt.getClaimAsStringList(groupsClaim));
             return user;
         };
     }
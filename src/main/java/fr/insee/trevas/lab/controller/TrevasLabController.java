@@ -3,35 +3,43 @@ package fr.insee.trevas.lab.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fr.insee.trevas.lab.configuration.security.UserProvider;
 import fr.insee.trevas.lab.model.*;
+import fr.insee.trevas.lab.service.DatasetProfiler;
+import fr.insee.trevas.lab.service.ExportService;
 import fr.insee.trevas.lab.service.InMemoryEngine;
+import fr.insee.trevas.lab.service.JobService;
+import fr.insee.trevas.lab.service.ProvenanceService;
+import fr.insee.trevas.lab.service.QuotaService;
 import fr.insee.trevas.lab.service.SparkEngine;
-import fr.insee.vtl.prov.prov.Program;
-import fr.insee.vtl.prov.utils.RDFUtils;
+import fr.insee.trevas.lab.service.UploadService;
+import fr.insee.trevas.lab.utils.Fingerprints;
+import fr.insee.trevas.lab.utils.Utils;
+import fr.insee.vtl.model.PersistentDataset;
+import fr.insee.vtl.spark.SparkDataset;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
 import org.apache.spark.sql.SparkSession;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import javax.script.Bindings;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/vtl")
 public class TrevasLabController {
 
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
-    private final Map<UUID, Job> jobs = new HashMap<>();
-
     @Autowired
     private UserProvider userProvider;
 
@@ -41,6 +49,24 @@ public class TrevasLabController {
     @Autowired
     private SparkEngine sparkEngine;
 
+    @Autowired
+    private ProvenanceService provenanceService;
+
+    @Autowired
+    private DatasetProfiler datasetProfiler;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private JobService jobService;
+
+    @Autowired
+    private UploadService uploadService;
+
+    @Autowired
+    private ExportService exportService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -77,19 +103,64 @@ public class TrevasLabController {
         } else throw new Exception("Unknow mode: " + mode);
     }
 
+    /**
+     * Stages a CSV or parquet file, and returns the binding to use in /execute and /connect.
+     */
+    @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Upload upload(
+            Authentication auth,
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "filetype", required = false) String filetype
+    ) throws Exception {
+        return uploadService.stage(userProvider.getUser(auth), file, filetype);
+    }
+
+    @PostMapping("/profile")
+    public DatasetProfile getProfile(
+            Authentication auth,
+            @RequestBody Body body,
+            @RequestParam("connectorType") ConnectorType connectorType
+    ) throws Exception {
+        if (connectorType == ConnectorType.JDBC)
+            return datasetProfiler.getJDBCProfile(userProvider.getUser(auth), body.getQueriesForBindings().get("config"));
+        else if (connectorType == ConnectorType.S3)
+            return datasetProfiler.getS3Profile(userProvider.getUser(auth), body.getS3ForBindings().get("config"));
+        else throw new Exception("Unknow connector type: " + connectorType);
+    }
+
+    /**
+     * Plans and size estimates of the results of a script, without executing it.
+     */
+    @PostMapping("/explain")
+    public ScriptExplain explain(Authentication auth, @RequestBody Body body) throws Exception {
+        return sparkEngine.explain(userProvider.getUser(auth), body);
+    }
+
     @PostMapping("/provenance")
-    public ResponseEntity<String> postProvenance(
+    public ResponseEntity<?> postProvenance(
             Authentication auth,
-            @RequestBody BodyProvenance body
-    ) {
-        String id = body.getId();
-        String name = body.getName();
-        String script = body.getScript();
-        Map<String, S3ForBindings> bindings = body.getBindings();
-        Program program = sparkEngine.getProgram(script, id, name, bindings);
-        Model model = RDFUtils.buildModel(program);
+            @RequestBody BodyProvenance body,
+            @RequestParam(value = "format", defaultValue = "JSON-LD") String format
+    ) throws Exception {
+        if ("JSON-LD".equalsIgnoreCase(format)) {
+            return ResponseEntity.status(HttpStatus.OK)
+                    .body(provenanceService.getJsonLd(body));
+        }
+        // Block-oriented formats are written triple by triple, without building the document in memory
+        RDFFormat rdfFormat;
+        MediaType mediaType;
+        if ("TURTLE".equalsIgnoreCase(format)) {
+            rdfFormat = RDFFormat.TURTLE_BLOCKS;
+            mediaType = MediaType.parseMediaType("text/turtle");
+        } else if ("N-TRIPLES".equalsIgnoreCase(format)) {
+            rdfFormat = RDFFormat.NTRIPLES;
+            mediaType = MediaType.parseMediaType("application/n-triples");
+        } else throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknow format: " + format);
+        Model model = provenanceService.getModel(body);
+        StreamingResponseBody stream = out -> RDFDataMgr.write(out, model, rdfFormat);
         return ResponseEntity.status(HttpStatus.OK)
-                .body(RDFUtils.serialize(model, "JSON-LD"));
+                .contentType(mediaType)
+                .body(stream);
     }
 
     @PostMapping("/execute")
@@ -99,105 +170,139 @@ public class TrevasLabController {
             @RequestParam("mode") ExecutionMode mode,
             @RequestParam("preview") Boolean preview
     ) throws Exception {
-        Job job;
-        if (mode == ExecutionMode.MEMORY) {
-            job = executeJob(body, () -> {
-                try {
-                    return inMemoryEngine.executeInMemory(userProvider.getUser(auth), body, preview);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    throw new Exception(e.getMessage());
-                }
-            });
-        } else if (mode == ExecutionMode.SPARK) {
-            job = executeJob(body, () -> {
-                try {
-                    return sparkEngine.executeSpark(userProvider.getUser(auth), body, preview);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    throw new Exception(e.getMessage());
-                }
-            });
-        } else throw new Exception("Unknow mode:" + mode);
-        jobs.put(job.id, job);
+        Job job = jobService.submit(userProvider.getUser(auth), body, mode, preview);
         return ResponseEntity.status(HttpStatus.CREATED)
                 .header("Location", "/api/vtl/job/" + job.id)
                 .body(job.id);
     }
 
+    @PostMapping("/execute/batch")
+    public ResponseEntity<UUID> executeBatch(
+            Authentication auth,
+            @RequestBody BatchBody batch,
+            @RequestParam("preview") Boolean preview
+    ) throws Exception {
+        Job job = jobService.submitBatch(userProvider.getUser(auth), batch, preview);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header("Location", "/api/vtl/job/" + job.id)
+                .body(job.id);
+    }
+
+    @GetMapping("/quota")
+    public QuotaUsage getQuota(Authentication auth) {
+        return quotaService.getUsage(userProvider.getUser(auth));
+    }
+
+    /**
+     * Answers 304 while the status is unchanged, so that polling costs almost nothing.
+     */
     @GetMapping("/job/{jobId}")
-    public Job getJob(@PathVariable UUID jobId) {
-        if (!jobs.containsKey(jobId)) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
-        }
-        return jobs.get(jobId);
+    public ResponseEntity<JobStatus> getJob(Authentication auth, @PathVariable UUID jobId, WebRequest request) throws Exception {
+        JobStatus jobStatus = JobStatus.of(findJob(auth, jobId));
+        String etag = "\"" + Fingerprints.hash(objectMapper.writeValueAsString(jobStatus)) + "\"";
+        if (request.checkNotModified(etag)) return null;
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .body(jobStatus);
+    }
+
+    /**
+     * Definition of a job, without its passwords nor its inline datasets.
+     */
+    @GetMapping("/job/{jobId}/definition")
+    public Body getJobDefinition(Authentication auth, @PathVariable UUID jobId) {
+        Body definition = findJob(auth, jobId).definition;
+        if (definition == null) return null;
+        Body redacted = definition.copy();
+        redacted.setBindings(null);
+        return redacted;
+    }
+
+    @GetMapping("/job/{jobId}/profile")
+    public JobProfile getJobProfile(Authentication auth, @PathVariable UUID jobId) {
+        return findJob(auth, jobId).profile;
+    }
+
+    /**
+     * Profile in the Chrome trace event format, to open in chrome://tracing or Perfetto.
+     */
+    @GetMapping("/job/{jobId}/trace")
+    public ResponseEntity<Map<String, Object>> getJobTrace(Authentication auth, @PathVariable UUID jobId) {
+        return ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=\"" + jobId + ".trace.json\"")
+                .body(findJob(auth, jobId).profile.toTraceEvents(jobId));
+    }
+
+    @DeleteMapping("/job/{jobId}")
+    public JobStatus cancelJob(Authentication auth, @PathVariable UUID jobId) {
+        findJob(auth, jobId);
+        jobService.cancel(jobId, "Cancelled by user");
+        return JobStatus.of(findJob(auth, jobId));
     }
 
     @GetMapping("/job/{jobId}/bindings")
-    public List<String> getJobBinding(@PathVariable UUID jobId) {
-        if (!jobs.containsKey(jobId)) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
-        }
-        return jobs.get(jobId).bindings.keySet()
+    public List<String> getJobBinding(Authentication auth, @PathVariable UUID jobId) {
+        Job job = findJob(auth, jobId);
+        if (job.bindings == null) return List.of();
+        return job.bindings.keySet()
                 .stream().filter(b -> b.contains("$PersistentDataset"))
                 .map(b -> b.replace("$PersistentDataset", ""))
                 .collect(Collectors.toList());
     }
 
-    // TODO: Move to service.
-    // TODO: Clean up the job map based on the date.
-    // TODO: Refactor to use the ScriptEngine inside the user session.
-    public Job executeJob(Body body, VtlJob execution) {
-        Job job = new Job();
-        executorService.submit(() -> {
-            try {
-                job.definition = body;
-                Map<String, S3ForBindings> s3ToSave = body.getToSave().getS3ForBindings();
-                if (s3ToSave != null) {
-                    s3ToSave.forEach((k, v) -> {
-                        var output = new Output();
-                        output.location = k;
-                        job.outputs.put(k, output);
-                    });
-                }
-                Map<String, QueriesForBindingsToSave> jdbcToSave = body.getToSave().getJdbcForBindingsToSave();
-                if (jdbcToSave != null) {
-                    jdbcToSave.forEach((k, v) -> {
-                        var output = new Output();
-                        output.location = k;
-                        job.outputs.put(k, output);
-                    });
-                }
-                job.status = Status.RUNNING;
-                job.bindings = execution.execute();
-                for (String variableName : job.outputs.keySet()) {
-                    final var output = job.outputs.get(variableName);
-                    try {
-                        output.status = Status.RUNNING;
-                        SparkSession.Builder sparkBuilder = SparkSession.builder()
-                                .appName("trevas-lab")
-                                .master("local");
-                        SparkSession spark = sparkBuilder.getOrCreate();
-//                        writeSparkDataset(objectMapper, spark, output.location, (SparkDataset) job.bindings.get(variableName));
-                        output.status = Status.DONE;
-                    } catch (Exception ex) {
-                        job.status = Status.FAILED;
-                        output.status = Status.FAILED;
-                        output.error = ex;
-                    }
-                }
-                job.status = Status.DONE;
-            } catch (Exception e) {
-                job.status = Status.FAILED;
-                job.error = e;
-            }
-        });
-        return job;
+    @GetMapping("/job/{jobId}/bindings/{name}")
+    public EditVisualize getJobBindingData(
+            Authentication auth,
+            @PathVariable UUID jobId,
+            @PathVariable String name,
+            @RequestParam(value = "limit", defaultValue = "100") int limit
+    ) {
+        fr.insee.vtl.model.Dataset dataset = findBinding(findJob(auth, jobId), name);
+        User user = userProvider.getUser(auth);
+        if (dataset instanceof SparkDataset) quotaService.usePool(sparkEngine.buildSparkSession(), user);
+        return Utils.toEditVisualize(dataset, quotaService.capRows(user, limit));
     }
 
-    @FunctionalInterface
-    interface VtlJob {
-        Bindings execute() throws Exception;
+    /**
+     * Downloads a whole result, streamed as it is read.
+     */
+    @GetMapping("/job/{jobId}/bindings/{name}/export")
+    public ResponseEntity<StreamingResponseBody> exportJobBinding(
+            Authentication auth,
+            @PathVariable UUID jobId,
+            @PathVariable String name,
+            @RequestParam(value = "format", defaultValue = "csv") String format,
+            @RequestParam(value = "compression", required = false) String compression
+    ) {
+        fr.insee.vtl.model.Dataset dataset = findBinding(findJob(auth, jobId), name);
+        StreamingResponseBody stream = exportService.export(userProvider.getUser(auth), dataset, format, compression);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header("Content-Disposition",
+                        "attachment; filename=\"" + ExportService.fileName(name, format, compression) + "\"")
+                .body(stream);
+    }
+
+    private static fr.insee.vtl.model.Dataset findBinding(Job job, String name) {
+        Object value = job.bindings == null ? null
+                : job.bindings.containsKey(name) ? job.bindings.get(name)
+                : job.bindings.get(name + "$PersistentDataset");
+        if (value instanceof PersistentDataset persistent) value = persistent.getDelegate();
+        if (!(value instanceof fr.insee.vtl.model.Dataset dataset))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknow binding: " + name);
+        return dataset;
+    }
+
+    /**
+     * Jobs are only visible to the user who submitted them (anyone, when security is disabled).
+     */
+    private Job findJob(Authentication auth, UUID jobId) {
+        Job job = jobService.getJob(jobId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        String owner = job.user == null ? null : job.user.getId();
+        if (!Objects.equals(owner, userProvider.getUser(auth).getId()))
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        return job;
     }
 
 }
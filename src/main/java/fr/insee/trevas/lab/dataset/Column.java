@@ -0,0 +1,369 @@
+package fr.insee.trevas.lab.dataset;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Growable column of a {@link ColumnarDataset}: numbers are kept as primitives, strings as dictionary
+ * codes and nulls in a bitmap. Primitive buffers are allocated off-heap when asked to, and can be
+ * spilled to a file which is then memory-mapped, and keeps growing there.
+ */
+abstract class Column {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    protected final boolean offHeap;
+    protected final BitSet nulls = new BitSet();
+    protected int size;
+
+    Column(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    static Column of(Class<?> type, boolean offHeap) {
+        if (Long.class.equals(type)) return new LongColumn(offHeap);
+        if (Double.class.equals(type)) return new DoubleColumn(offHeap);
+        if (Boolean.class.equals(type)) return new BooleanColumn(offHeap);
+        if (String.class.equals(type)) return new StringColumn(offHeap);
+        return new ObjectColumn(offHeap);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    void appendNull() {
+        nulls.set(size);
+        appendDefault();
+        size++;
+    }
+
+    void append(Object value) {
+        if (value == null) {
+            appendNull();
+            return;
+        }
+        appendValue(value);
+        size++;
+    }
+
+    Object get(int row) {
+        if (nulls.get(row)) return null;
+        return getValue(row);
+    }
+
+    /**
+     * Bytes held in memory, heap or direct, by the values. Spilled values are not counted.
+     */
+    long residentBytes() {
+        return nulls.size() / 8;
+    }
+
+    /**
+     * Moves the values to the file and maps them back, values appended later going to the file too.
+     *
+     * @return whether the file was created
+     */
+    boolean spill(Path file) throws IOException {
+        return false;
+    }
+
+    protected abstract void appendDefault();
+
+    protected abstract void appendValue(Object value);
+
+    protected abstract Object getValue(int row);
+
+    /**
+     * Column of fixed-width values backed by a byte buffer.
+     */
+    abstract static class PrimitiveColumn extends Column {
+
+        private final int width;
+        protected ByteBuffer bytes;
+        private Path file;
+
+        PrimitiveColumn(boolean offHeap, int width) {
+            super(offHeap);
+            this.width = width;
+            this.bytes = allocate(INITIAL_CAPACITY * width);
+            view();
+        }
+
+        private ByteBuffer allocate(int capacity) {
+            return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        /**
+         * Position in bytes of the next value, growing the buffer when full. To be called before
+         * reading the typed view, which it may replace.
+         */
+        protected int next() {
+            if ((long) (size + 1) * width > bytes.capacity()) {
+                int capacity = grow(bytes.capacity(), size, width);
+                if (file != null) {
+                    // The values are already in the file, which grows with the mapping
+                    try {
+                        bytes = map(file, capacity);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                } else {
+                    ByteBuffer grown = allocate(capacity);
+                    grown.put(bytes.duplicate().position(0).limit(size * width));
+                    // Typed views start at the position
+                    bytes = grown.clear();
+                }
+                view();
+            }
+            return size * width;
+        }
+
+        /**
+         * Doubles the capacity, up to the largest buffer holding whole values.
+         */
+        static int grow(int capacity, int size, int width) {
+            int max = Integer.MAX_VALUE / width * width;
+            if ((long) (size + 1) * width > max)
+                throw new IllegalStateException("Column too large: a buffer holds at most " + max / width + " values");
+            return (int) Math.min(2L * capacity, max);
+        }
+
+        /**
+         * Refreshes the typed view of the bytes.
+         */
+        protected abstract void view();
+
+        @Override
+        long residentBytes() {
+            return super.residentBytes() + (file != null ? 0 : bytes.capacity());
+        }
+
+        @Override
+        boolean spill(Path file) throws IOException {
+            if (this.file != null) return false;
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer content = bytes.duplicate().position(0).limit(size * width);
+                long offset = 0;
+                while (content.hasRemaining()) {
+                    offset += channel.write(content, offset);
+                }
+                bytes = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes.capacity());
+            }
+            this.file = file;
+            view();
+            return true;
+        }
+
+        private static ByteBuffer map(Path file, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        }
+    }
+
+    static class LongColumn extends PrimitiveColumn {
+
+        private LongBuffer values;
+
+        LongColumn(boolean offHeap) {
+            super(offHeap, Long.BYTES);
+        }
+
+        @Override
+        protected void view() {
+            values = bytes.asLongBuffer();
+        }
+
+        void appendLong(long value) {
+            int index = next() / Long.BYTES;
+            values.put(index, value);
+            size++;
+        }
+
+        long getLong(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        protected void appendDefault() {
+            int index = next() / Long.BYTES;
+            values.put(index, 0L);
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            int index = next() / Long.BYTES;
+            values.put(index, ((Number) value).longValue());
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return values.get(row);
+        }
+    }
+
+    static class DoubleColumn extends PrimitiveColumn {
+
+        private DoubleBuffer values;
+
+        DoubleColumn(boolean offHeap) {
+            super(offHeap, Double.BYTES);
+        }
+
+        @Override
+        protected void view() {
+            values = bytes.asDoubleBuffer();
+        }
+
+        void appendDouble(double value) {
+            int index = next() / Double.BYTES;
+            values.put(index, value);
+            size++;
+        }
+
+        double getDouble(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        protected void appendDefault() {
+            int index = next() / Double.BYTES;
+            values.put(index, 0d);
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            int index = next() / Double.BYTES;
+            values.put(index, ((Number) value).doubleValue());
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return values.get(row);
+        }
+    }
+
+    /**
+     * Strings are stored once in a dictionary, rows hold their code.
+     */
+    static class StringColumn extends PrimitiveColumn {
+
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        private long dictionaryBytes;
+        private IntBuffer values;
+
+        StringColumn(boolean offHeap) {
+            super(offHeap, Integer.BYTES);
+        }
+
+        @Override
+        protected void view() {
+            values = bytes.asIntBuffer();
+        }
+
+        @Override
+        long residentBytes() {
+            return super.residentBytes() + dictionaryBytes;
+        }
+
+        @Override
+        protected void appendDefault() {
+            int index = next() / Integer.BYTES;
+            values.put(index, -1);
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            String string = value.toString();
+            Integer code = codes.get(string);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(string);
+                codes.put(string, code);
+                dictionaryBytes += 40 + 2L * string.length();
+            }
+            int index = next() / Integer.BYTES;
+            values.put(index, code);
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return dictionary.get(values.get(row));
+        }
+    }
+
+    static class BooleanColumn extends Column {
+
+        private final BitSet values = new BitSet();
+
+        BooleanColumn(boolean offHeap) {
+            super(offHeap);
+        }
+
+        @Override
+        long residentBytes() {
+            return super.residentBytes() + values.size() / 8;
+        }
+
+        @Override
+        protected void appendDefault() {
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            values.set(size, (Boolean) value);
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return values.get(row);
+        }
+    }
+
+    /**
+     * Fallback for the other types (dates...), kept boxed on the heap.
+     */
+    static class ObjectColumn extends Column {
+
+        private final List<Object> values = new ArrayList<>();
+
+        ObjectColumn(boolean offHeap) {
+            super(offHeap);
+        }
+
+        @Override
+        long residentBytes() {
+            return super.residentBytes() + 24L * values.size();
+        }
+
+        @Override
+        protected void appendDefault() {
+            values.add(null);
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            values.add(value);
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return values.get(row);
+        }
+    }
+}
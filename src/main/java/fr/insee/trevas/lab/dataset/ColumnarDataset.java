@@ -0,0 +1,261 @@
+package fr.insee.trevas.lab.dataset;
+
+import fr.insee.vtl.model.DataPoint;
+import fr.insee.vtl.model.Dataset;
+import fr.insee.vtl.model.Structured;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Column-oriented in-memory dataset: cells are stored as primitives, dictionary codes and null bitmaps
+ * rather than boxed objects. {@link #getDataPoints()} is a row view building each {@link DataPoint} on access.
+ * The dataset can be {@link #spill(Path) spilled} to disk, or spill by itself while it is built; its files
+ * are the raw, uncompressed column buffers, memory-mapped for random access, and go away with
+ * {@link #release()}.
+ */
+public class ColumnarDataset implements Dataset {
+
+    private final Structured.DataStructure structure;
+    private final List<Column> columns;
+    private final int size;
+    private final SpillFiles files;
+
+    private ColumnarDataset(Structured.DataStructure structure, List<Column> columns, int size, SpillFiles files) {
+        this.structure = structure;
+        this.columns = columns;
+        this.size = size;
+        this.files = files;
+    }
+
+    public static ColumnarDataset of(Dataset dataset, boolean offHeap) {
+        return of(dataset, offHeap, 0);
+    }
+
+    /**
+     * @param maxBytes memory the copy may take, 0 for no limit
+     * @throws LimitExceededException when the copy takes more
+     */
+    public static ColumnarDataset of(Dataset dataset, boolean offHeap, long maxBytes) {
+        if (dataset instanceof ColumnarDataset columnar) {
+            if (maxBytes > 0 && columnar.residentBytes() > maxBytes) throw Builder.limitExceeded(maxBytes);
+            return columnar;
+        }
+        Builder builder = new Builder(dataset.getDataStructure(), offHeap).limitTo(maxBytes);
+        try {
+            for (DataPoint dataPoint : dataset.getDataPoints()) {
+                builder.add(dataPoint);
+            }
+        } catch (RuntimeException e) {
+            builder.discard();
+            throw e;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads a result set column by column type, without boxing the numbers.
+     */
+    public static ColumnarDataset of(ResultSet resultSet, boolean offHeap) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        List<Structured.Component> components = new ArrayList<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            components.add(new Structured.Component(metaData.getColumnLabel(i),
+                    toVtlType(metaData.getColumnType(i)), Dataset.Role.MEASURE));
+        }
+        Builder builder = new Builder(new Structured.DataStructure(components), offHeap);
+        while (resultSet.next()) {
+            for (int i = 0; i < builder.columns.size(); i++) {
+                Column column = builder.columns.get(i);
+                if (column instanceof Column.LongColumn longColumn) {
+                    long value = resultSet.getLong(i + 1);
+                    if (resultSet.wasNull()) column.appendNull();
+                    else longColumn.appendLong(value);
+                } else if (column instanceof Column.DoubleColumn doubleColumn) {
+                    double value = resultSet.getDouble(i + 1);
+                    if (resultSet.wasNull()) column.appendNull();
+                    else doubleColumn.appendDouble(value);
+                } else if (column instanceof Column.StringColumn) {
+                    column.append(resultSet.getString(i + 1));
+                } else {
+                    column.append(resultSet.getObject(i + 1));
+                }
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    private static Class<?> toVtlType(int sqlType) {
+        return switch (sqlType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT -> Long.class;
+            case Types.REAL, Types.FLOAT, Types.DOUBLE, Types.NUMERIC, Types.DECIMAL -> Double.class;
+            case Types.BIT, Types.BOOLEAN -> Boolean.class;
+            default -> String.class;
+        };
+    }
+
+    @Override
+    public List<DataPoint> getDataPoints() {
+        return new AbstractList<>() {
+            @Override
+            public DataPoint get(int row) {
+                if (row < 0 || row >= size) throw new IndexOutOfBoundsException(row);
+                List<Object> values = new ArrayList<>(columns.size());
+                for (Column column : columns) values.add(column.get(row));
+                return new DataPoint(structure, values);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Structured.DataStructure getDataStructure() {
+        return structure;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Bytes held in memory by the cells.
+     */
+    public long residentBytes() {
+        long bytes = 0;
+        for (Column column : columns) bytes += column.residentBytes();
+        return bytes;
+    }
+
+    /**
+     * Moves the primitive columns to files named after {@code file}, read back through memory mappings.
+     */
+    public synchronized void spill(Path file) throws IOException {
+        spill(columns, file, files);
+    }
+
+    private static void spill(List<Column> columns, Path file, SpillFiles files) throws IOException {
+        for (int i = 0; i < columns.size(); i++) {
+            Path columnFile = file.resolveSibling(file.getFileName() + "." + i);
+            if (columns.get(i).spill(columnFile)) files.add(columnFile);
+        }
+    }
+
+    /**
+     * Deletes the spilled files. The dataset must no longer be read.
+     */
+    public void release() {
+        files.release();
+    }
+
+    public static class Builder {
+
+        private final Structured.DataStructure structure;
+        private final List<Column> columns = new ArrayList<>();
+        private final SpillFiles files = new SpillFiles();
+        private int size;
+        private Path spillFile;
+        private long spillThresholdBytes;
+        private long maxBytes;
+
+        public Builder(Structured.DataStructure structure, boolean offHeap) {
+            this.structure = structure;
+            for (Structured.Component component : structure.values()) {
+                columns.add(Column.of(component.getType(), offHeap));
+            }
+        }
+
+        /**
+         * Spills the columns to files named after {@code file} as soon as they hold more than
+         * {@code thresholdBytes} in memory, rows added afterwards going straight to the files.
+         */
+        public Builder spillPast(long thresholdBytes, Path file) {
+            this.spillThresholdBytes = thresholdBytes;
+            this.spillFile = file;
+            return this;
+        }
+
+        /**
+         * Fails the build as soon as the columns hold more than {@code maxBytes} in memory (0: no limit).
+         */
+        public Builder limitTo(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Appends a row, its values being in the order of the structure.
+         */
+        public Builder add(List<?> row) {
+            for (int i = 0; i < columns.size(); i++) {
+                columns.get(i).append(row.get(i));
+            }
+            endRow();
+            return this;
+        }
+
+        int width() {
+            return columns.size();
+        }
+
+        Column column(int index) {
+            return columns.get(index);
+        }
+
+        /**
+         * Closes a row written column by column.
+         */
+        void endRow() {
+            size++;
+            // Checked every 1024 rows, the resident size only changes when a buffer grows
+            boolean spills = spillFile != null && files.isEmpty();
+            if ((size & 1023) != 0 || maxBytes <= 0 && !spills) return;
+            long bytes = 0;
+            for (Column column : columns) bytes += column.residentBytes();
+            if (maxBytes > 0 && bytes > maxBytes) throw limitExceeded(maxBytes);
+            if (spills && bytes > spillThresholdBytes) {
+                try {
+                    Files.createDirectories(spillFile.getParent());
+                    spill(columns, spillFile, files);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private static LimitExceededException limitExceeded(long maxBytes) {
+            return new LimitExceededException("Dataset exceeds the memory limit of " + maxBytes + " bytes");
+        }
+
+        /**
+         * Deletes the files spilled so far, when the dataset is not built after all.
+         */
+        public void discard() {
+            files.release();
+        }
+
+        public ColumnarDataset build() {
+            return new ColumnarDataset(structure, columns, size, files);
+        }
+    }
+
+    public static class LimitExceededException extends IllegalStateException {
+
+        LimitExceededException(String message) {
+            super(message);
+        }
+    }
+}
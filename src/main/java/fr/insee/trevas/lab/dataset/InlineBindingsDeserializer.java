@@ -0,0 +1,143 @@
+package fr.insee.trevas.lab.dataset;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import fr.insee.vtl.model.Dataset;
+import fr.insee.vtl.model.Structured;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads inline bindings ({@code {"name": {"dataStructure": [...], "dataPoints": [[...], ...]}, "scalar": 1}})
+ * token by token straight into {@link ColumnarDataset}s, without boxing the cells. Datasets going past
+ * the threshold are spilled to files while they are read, deleted when the job releases its bindings
+ * (or when the dataset is garbage collected, for rejected requests).
+ */
+public class InlineBindingsDeserializer extends StdDeserializer<Bindings> {
+
+    private final boolean offHeap;
+    private final long spillThresholdBytes;
+    private final Path spillDirectory;
+
+    public InlineBindingsDeserializer(boolean offHeap, long spillThresholdBytes, Path spillDirectory) {
+        super(Bindings.class);
+        this.offHeap = offHeap;
+        this.spillThresholdBytes = spillThresholdBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public Bindings deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (!p.isExpectedStartObjectToken()) return (Bindings) ctxt.handleUnexpectedToken(Bindings.class, p);
+        Bindings bindings = new SimpleBindings();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken token = p.nextToken();
+            bindings.put(name, token == JsonToken.START_OBJECT ? readDataset(p, ctxt) : readScalar(p, ctxt));
+        }
+        return bindings;
+    }
+
+    private static Object readScalar(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return switch (p.currentToken()) {
+            case VALUE_NULL -> null;
+            case VALUE_NUMBER_INT -> p.getLongValue();
+            case VALUE_NUMBER_FLOAT -> p.getDoubleValue();
+            case VALUE_TRUE, VALUE_FALSE -> p.getBooleanValue();
+            case VALUE_STRING -> p.getText();
+            default -> ctxt.handleUnexpectedToken(Object.class, p);
+        };
+    }
+
+    private ColumnarDataset readDataset(JsonParser p, DeserializationContext ctxt) throws IOException {
+        Structured.DataStructure structure = null;
+        TokenBuffer bufferedPoints = null;
+        ColumnarDataset dataset = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if ("dataStructure".equals(field)) {
+                structure = readStructure(p, ctxt);
+            } else if ("dataPoints".equals(field)) {
+                // Points are streamed when the structure comes first, as it usually does
+                if (structure == null) bufferedPoints = ctxt.bufferAsCopyOfValue(p);
+                else dataset = readDataPoints(p, structure);
+            } else p.skipChildren();
+        }
+        if (structure == null) throw JsonMappingException.from(p, "Inline dataset without dataStructure");
+        if (dataset == null && bufferedPoints != null) {
+            try (JsonParser replay = bufferedPoints.asParser(p.getCodec())) {
+                replay.nextToken();
+                dataset = readDataPoints(replay, structure);
+            }
+        }
+        if (dataset == null) dataset = new ColumnarDataset.Builder(structure, offHeap).build();
+        return dataset;
+    }
+
+    private static Structured.DataStructure readStructure(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonNode node = ctxt.readTree(p);
+        List<Structured.Component> components = new ArrayList<>();
+        for (JsonNode component : node) {
+            String type = component.path("type").asText();
+            Class<?> javaType = switch (type) {
+                case "STRING" -> String.class;
+                case "INTEGER" -> Long.class;
+                case "NUMBER" -> Double.class;
+                case "BOOLEAN" -> Boolean.class;
+                case "DATE" -> LocalDate.class;
+                default -> throw JsonMappingException.from(p, "Unknow component type: " + type);
+            };
+            components.add(new Structured.Component(component.path("name").asText(), javaType,
+                    Dataset.Role.valueOf(component.path("role").asText("MEASURE"))));
+        }
+        return new Structured.DataStructure(components);
+    }
+
+    private ColumnarDataset readDataPoints(JsonParser p, Structured.DataStructure structure) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) throw JsonMappingException.from(p, "dataPoints must be an array");
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder(structure, offHeap);
+        if (spillThresholdBytes > 0)
+            builder.spillPast(spillThresholdBytes, spillDirectory.resolve("inline-" + UUID.randomUUID() + ".col"));
+        try {
+            return readDataPoints(p, structure, builder);
+        } catch (IOException | RuntimeException e) {
+            builder.discard();
+            throw e;
+        }
+    }
+
+    private static ColumnarDataset readDataPoints(JsonParser p, Structured.DataStructure structure,
+                                                  ColumnarDataset.Builder builder) throws IOException {
+        List<Structured.Component> components = new ArrayList<>(structure.values());
+        while (p.nextToken() == JsonToken.START_ARRAY) {
+            int i = 0;
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                if (i >= builder.width()) throw JsonMappingException.from(p, "Too many values in a data point");
+                Column column = builder.column(i);
+                if (p.currentToken() == JsonToken.VALUE_NULL) column.appendNull();
+                else if (column instanceof Column.LongColumn longColumn) longColumn.appendLong(p.getLongValue());
+                else if (column instanceof Column.DoubleColumn doubleColumn) doubleColumn.appendDouble(p.getDoubleValue());
+                else if (column instanceof Column.BooleanColumn) column.append(p.getBooleanValue());
+                else if (LocalDate.class.equals(components.get(i).getType())) column.append(LocalDate.parse(p.getText()));
+                else column.append(p.getText());
+                i++;
+            }
+            if (i != builder.width()) throw JsonMappingException.from(p, "Missing values in a data point");
+            builder.endRow();
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,49 @@
+package fr.insee.trevas.lab.dataset;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Files of the spilled columns of a dataset, deleted when the dataset is released or, failing that,
+ * once neither the dataset nor its builder is reachable (a request rejected after parsing, a failed
+ * parse...). Mappings stay readable once their file is deleted.
+ */
+final class SpillFiles {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final List<Path> paths = new CopyOnWriteArrayList<>();
+    private final Cleaner.Cleanable cleanable;
+
+    SpillFiles() {
+        List<Path> owned = paths;
+        this.cleanable = CLEANER.register(this, () -> delete(owned));
+    }
+
+    void add(Path path) {
+        paths.add(path);
+    }
+
+    boolean isEmpty() {
+        return paths.isEmpty();
+    }
+
+    void release() {
+        cleanable.clean();
+    }
+
+    private static void delete(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // Left to the clean-up of the spill directory
+            }
+        }
+        paths.clear();
+    }
+}
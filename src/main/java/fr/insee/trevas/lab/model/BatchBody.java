@@ -0,0 +1,40 @@
+package fr.insee.trevas.lab.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Either a list of bodies, or one body run once per parameter set.
+ */
+public class BatchBody {
+
+    private List<Body> bodies;
+
+    private Body body;
+
+    private List<Map<String, Object>> parameterSets;
+
+    public List<Body> getBodies() {
+        return bodies;
+    }
+
+    public void setBodies(List<Body> bodies) {
+        this.bodies = bodies;
+    }
+
+    public Body getBody() {
+        return body;
+    }
+
+    public void setBody(Body body) {
+        this.body = body;
+    }
+
+    public List<Map<String, Object>> getParameterSets() {
+        return parameterSets;
+    }
+
+    public void setParameterSets(List<Map<String, Object>> parameterSets) {
+        this.parameterSets = parameterSets;
+    }
+}
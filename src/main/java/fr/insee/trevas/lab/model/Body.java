@@ -14,6 +14,18 @@ public class Body {
 
     private String writePath;
 
+    private Boolean incremental;
+
+    private Long maxRuntimeSeconds;
+
+    private Map<String, Object> parameters;
+
+    private Map<String, Materialization> materializations;
+
+    private Streaming streaming;
+
+    private Tuning tuning;
+
     public Map<String, S3ForBindings> getS3ForBindings() {
         return s3ForBindings;
     }
@@ -69,4 +81,73 @@ public class Body {
     public void setWritePath(String writePath) {
         this.writePath = writePath;
     }
+
+    public Boolean getIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(Boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public Long getMaxRuntimeSeconds() {
+        return maxRuntimeSeconds;
+    }
+
+    public void setMaxRuntimeSeconds(Long maxRuntimeSeconds) {
+        this.maxRuntimeSeconds = maxRuntimeSeconds;
+    }
+
+    public Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(Map<String, Object> parameters) {
+        this.parameters = parameters;
+    }
+
+    public Map<String, Materialization> getMaterializations() {
+        return materializations;
+    }
+
+    public void setMaterializations(Map<String, Materialization> materializations) {
+        this.materializations = materializations;
+    }
+
+    public Streaming getStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(Streaming streaming) {
+        this.streaming = streaming;
+    }
+
+    public Tuning getTuning() {
+        return tuning;
+    }
+
+    public void setTuning(Tuning tuning) {
+        this.tuning = tuning;
+    }
+
+    /**
+     * Shallow copy, sharing the bindings and connection settings.
+     */
+    public Body copy() {
+        Body copy = new Body();
+        copy.setVtlScript(vtlScript);
+        copy.setBindings(bindings);
+        copy.setQueriesForBindings(queriesForBindings);
+        copy.setQueriesForBindingsToSave(queriesForBindingsToSave);
+        copy.setS3ForBindings(s3ForBindings);
+        copy.setToSave(toSave);
+        copy.setWritePath(writePath);
+        copy.setIncremental(incremental);
+        copy.setMaxRuntimeSeconds(maxRuntimeSeconds);
+        copy.setParameters(parameters);
+        copy.setMaterializations(materializations);
+        copy.setStreaming(streaming);
+        copy.setTuning(tuning);
+        return copy;
+    }
 }
@@ -0,0 +1,80 @@
+package fr.insee.trevas.lab.model;
+
+import java.util.List;
+import java.util.Map;
+
+public class ColumnProfile {
+
+    private String name;
+    private String type;
+    private Long nullCount;
+    private Object min;
+    private Object max;
+    private Long distinctCount;
+    private Map<String, Double> quantiles;
+    private List<List<Double>> histogram;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Long getNullCount() {
+        return nullCount;
+    }
+
+    public void setNullCount(Long nullCount) {
+        this.nullCount = nullCount;
+    }
+
+    public Object getMin() {
+        return min;
+    }
+
+    public void setMin(Object min) {
+        this.min = min;
+    }
+
+    public Object getMax() {
+        return max;
+    }
+
+    public void setMax(Object max) {
+        this.max = max;
+    }
+
+    public Long getDistinctCount() {
+        return distinctCount;
+    }
+
+    public void setDistinctCount(Long distinctCount) {
+        this.distinctCount = distinctCount;
+    }
+
+    public Map<String, Double> getQuantiles() {
+        return quantiles;
+    }
+
+    public void setQuantiles(Map<String, Double> quantiles) {
+        this.quantiles = quantiles;
+    }
+
+    public List<List<Double>> getHistogram() {
+        return histogram;
+    }
+
+    public void setHistogram(List<List<Double>> histogram) {
+        this.histogram = histogram;
+    }
+}
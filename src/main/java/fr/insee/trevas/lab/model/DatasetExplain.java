@@ -0,0 +1,74 @@
+package fr.insee.trevas.lab.model;
+
+import java.util.List;
+import java.util.Map;
+
+public class DatasetExplain {
+
+    private String optimizedPlan;
+    private String physicalPlan;
+    private Long estimatedBytes;
+    private Integer shuffles;
+    private Integer broadcasts;
+    private List<String> joins;
+    private List<Map<String, String>> scans;
+
+    public String getOptimizedPlan() {
+        return optimizedPlan;
+    }
+
+    public void setOptimizedPlan(String optimizedPlan) {
+        this.optimizedPlan = optimizedPlan;
+    }
+
+    public String getPhysicalPlan() {
+        return physicalPlan;
+    }
+
+    public void setPhysicalPlan(String physicalPlan) {
+        this.physicalPlan = physicalPlan;
+    }
+
+    public Long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public void setEstimatedBytes(Long estimatedBytes) {
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    public Integer getShuffles() {
+        return shuffles;
+    }
+
+    public void setShuffles(Integer shuffles) {
+        this.shuffles = shuffles;
+    }
+
+    public Integer getBroadcasts() {
+        return broadcasts;
+    }
+
+    public void setBroadcasts(Integer broadcasts) {
+        this.broadcasts = broadcasts;
+    }
+
+    public List<String> getJoins() {
+        return joins;
+    }
+
+    public void setJoins(List<String> joins) {
+        this.joins = joins;
+    }
+
+    /**
+     * Source scans, with what reached them (PushedFilters, PartitionFilters, ReadSchema...).
+     */
+    public List<Map<String, String>> getScans() {
+        return scans;
+    }
+
+    public void setScans(List<Map<String, String>> scans) {
+        this.scans = scans;
+    }
+}
@@ -0,0 +1,25 @@
+package fr.insee.trevas.lab.model;
+
+import java.util.List;
+
+public class DatasetProfile {
+
+    private Long rowCount;
+    private List<ColumnProfile> columns;
+
+    public Long getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(Long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public List<ColumnProfile> getColumns() {
+        return columns;
+    }
+
+    public void setColumns(List<ColumnProfile> columns) {
+        this.columns = columns;
+    }
+}
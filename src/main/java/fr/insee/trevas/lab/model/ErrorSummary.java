@@ -0,0 +1,38 @@
+package fr.insee.trevas.lab.model;
+
+public class ErrorSummary {
+
+    private String type;
+    private String message;
+
+    public ErrorSummary() {
+    }
+
+    public ErrorSummary(String type, String message) {
+        this.type = type;
+        this.message = message;
+    }
+
+    public static ErrorSummary of(Throwable throwable) {
+        Throwable root = throwable;
+        while (root.getCause() != null && root.getCause() != root) root = root.getCause();
+        String message = root.getMessage() != null ? root.getMessage() : throwable.getMessage();
+        return new ErrorSummary(root.getClass().getSimpleName(), message);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
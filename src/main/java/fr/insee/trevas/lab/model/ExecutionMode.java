@@ -2,5 +2,6 @@ package fr.insee.trevas.lab.model;
 
 public enum ExecutionMode {
     MEMORY,
-    SPARK
+    SPARK,
+    STREAMING
 }
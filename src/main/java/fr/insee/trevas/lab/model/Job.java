@@ -1,23 +1,125 @@
 package fr.insee.trevas.lab.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import fr.insee.trevas.lab.dataset.ColumnarDataset;
 
 import javax.script.Bindings;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 
 public class Job {
     public UUID id = UUID.randomUUID();
     public Body definition;
-    public Status status = Status.READY;
-    public Map<String, Output> outputs = new HashMap<>();
-    public Exception error;
+    public volatile Status status = Status.READY;
+    public Map<String, Output> outputs = new ConcurrentHashMap<>();
+    public ErrorSummary error;
+    public String owner;
+    public ExecutionMode mode;
+    public Boolean preview;
+    public User user;
+    public UUID parent;
+    public Map<UUID, Status> children;
 
     @JsonIgnore
     public Bindings bindings;
 
+    /**
+     * Inline datasets of the definition, handed over to the engine when the job starts.
+     */
+    @JsonIgnore
+    public Bindings inlineBindings;
+
+    @JsonIgnore
+    public Future<?> future;
+
+    @JsonIgnore
+    public final JobProfile profile = new JobProfile();
+
+    @JsonIgnore
+    public final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+
+    /**
+     * When the job reached a final status, in epoch milliseconds, 0 before.
+     */
+    @JsonIgnore
+    public volatile long finishedAt;
+
 
     public Job() {
     }
+
+    /**
+     * What a store keeps of a finished job past its retention: its status, outputs and error, without
+     * its definition, profile nor results.
+     */
+    public Job summary() {
+        Job summary = new Job();
+        summary.id = id;
+        summary.status = status;
+        summary.outputs = outputs;
+        summary.error = error;
+        summary.owner = owner;
+        summary.mode = mode;
+        summary.preview = preview;
+        summary.user = user;
+        summary.parent = parent;
+        summary.children = children;
+        summary.finishedAt = finishedAt;
+        return summary;
+    }
+
+    /**
+     * Registers what has to be interrupted (Spark job group, JDBC statement...) when the job is cancelled.
+     */
+    public void onCancel(Runnable hook) {
+        cancelHooks.add(hook);
+    }
+
+    /**
+     * Moves the job to a new status, unless it is already finished.
+     */
+    public synchronized boolean transition(Status next) {
+        if (isFinished()) return false;
+        status = next;
+        if (isFinished()) finishedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    /**
+     * Moves the inline datasets out of the definition, so that the job does not keep them once the
+     * engine has its own bindings.
+     */
+    public void detachInlineBindings() {
+        if (definition == null || definition.getBindings() == null) return;
+        inlineBindings = definition.getBindings();
+        definition.setBindings(null);
+    }
+
+    public Bindings takeInlineBindings() {
+        detachInlineBindings();
+        Bindings inline = inlineBindings;
+        inlineBindings = null;
+        return inline;
+    }
+
+    /**
+     * Deletes the spilled files of the inline datasets no engine took, the job having failed or been
+     * cancelled before.
+     */
+    public void releaseInlineBindings() {
+        Bindings inline = takeInlineBindings();
+        if (inline == null) return;
+        inline.values().forEach(value -> {
+            if (value instanceof ColumnarDataset dataset) dataset.release();
+        });
+    }
 }
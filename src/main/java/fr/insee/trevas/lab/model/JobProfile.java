@@ -0,0 +1,63 @@
+package fr.insee.trevas.lab.model;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Timeline of a job: its phases (binding loads, evaluation, writes...) and the Spark stages it ran.
+ */
+public class JobProfile {
+
+    private final List<Span> spans = new CopyOnWriteArrayList<>();
+
+    /**
+     * Spans recorded before the profile started rolling, always kept, -1 while it does not roll.
+     */
+    private int pinned = -1;
+    private int rolling;
+
+    public Span span(String name) {
+        Span span = Span.start(name, "phase");
+        add(span);
+        return span;
+    }
+
+    public synchronized void add(Span span) {
+        spans.add(span);
+        if (pinned < 0) return;
+        while (spans.size() > pinned + rolling) spans.remove(pinned);
+    }
+
+    /**
+     * From now on keeps only the last {@code count} spans, besides those recorded so far: for jobs
+     * which never end, such as streams.
+     */
+    public synchronized void keepLast(int count) {
+        pinned = spans.size();
+        rolling = count;
+    }
+
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    /**
+     * Chrome trace event format, readable by chrome://tracing or Perfetto.
+     */
+    public Map<String, Object> toTraceEvents(UUID jobId) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (Span span : spans) {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("name", span.getName());
+            event.put("cat", span.getCategory());
+            event.put("ph", "X");
+            event.put("ts", span.getStartMicros());
+            event.put("dur", span.getDurationMicros());
+            event.put("pid", jobId.toString());
+            event.put("tid", span.getThread());
+            event.put("args", span.getAttributes());
+            events.add(event);
+        }
+        return Map.of("traceEvents", events, "displayTimeUnit", "ms");
+    }
+}
@@ -0,0 +1,34 @@
+package fr.insee.trevas.lab.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * What pollers need to know about a job, without its definition.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobStatus {
+    public UUID id;
+    public Status status;
+    public ExecutionMode mode;
+    public Boolean preview;
+    public UUID parent;
+    public Map<UUID, Status> children;
+    public Map<String, Output> outputs;
+    public ErrorSummary error;
+
+    public static JobStatus of(Job job) {
+        JobStatus jobStatus = new JobStatus();
+        jobStatus.id = job.id;
+        jobStatus.status = job.status;
+        jobStatus.mode = job.mode;
+        jobStatus.preview = job.preview;
+        jobStatus.parent = job.parent;
+        jobStatus.children = job.children;
+        jobStatus.outputs = job.outputs;
+        jobStatus.error = job.error;
+        return jobStatus;
+    }
+}
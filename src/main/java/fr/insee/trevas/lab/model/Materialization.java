@@ -0,0 +1,45 @@
+package fr.insee.trevas.lab.model;
+
+/**
+ * How a Spark result is kept once the job is done: lazy (recomputed on each read), cached on the
+ * executors with a storage level, checkpointed to the job scratch path, or collected up to some rows.
+ */
+public class Materialization {
+
+    private MaterializationPolicy policy;
+    private String storageLevel;
+    private Integer rows;
+
+    public Materialization() {
+    }
+
+    public Materialization(MaterializationPolicy policy, String storageLevel, Integer rows) {
+        this.policy = policy;
+        this.storageLevel = storageLevel;
+        this.rows = rows;
+    }
+
+    public MaterializationPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(MaterializationPolicy policy) {
+        this.policy = policy;
+    }
+
+    public String getStorageLevel() {
+        return storageLevel;
+    }
+
+    public void setStorageLevel(String storageLevel) {
+        this.storageLevel = storageLevel;
+    }
+
+    public Integer getRows() {
+        return rows;
+    }
+
+    public void setRows(Integer rows) {
+        this.rows = rows;
+    }
+}
@@ -0,0 +1,8 @@
+package fr.insee.trevas.lab.model;
+
+public enum MaterializationPolicy {
+    LAZY,
+    CACHE,
+    CHECKPOINT,
+    COLLECT
+}
@@ -1,7 +1,24 @@
 package fr.insee.trevas.lab.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class Output {
     public Status status = Status.READY;
     public String location;
-    public Exception error;
+    public ErrorSummary error;
+
+    /**
+     * Committer of a file output, and what its commit took.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String committer;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long commitMillis;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long files;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long bytes;
 }
@@ -1,12 +1,19 @@
 package fr.insee.trevas.lab.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public class QueriesForBindings {
 
     private String url;
     private String user;
+    /**
+     * Never written back: job definitions are shown to users and stored without it.
+     */
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private String password;
     private String query;
     private String dbtype;
+    private Boolean broadcast;
 
     public String getUrl() {
         return url;
@@ -48,4 +55,11 @@ public class QueriesForBindings {
         this.dbtype = dbtype;
     }
 
+    public Boolean getBroadcast() {
+        return broadcast;
+    }
+
+    public void setBroadcast(Boolean broadcast) {
+        this.broadcast = broadcast;
+    }
 }
@@ -1,9 +1,15 @@
 package fr.insee.trevas.lab.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public class QueriesForBindingsToSave {
 
     private String url;
     private String user;
+    /**
+     * Never written back: job definitions are shown to users and stored without it.
+     */
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private String password;
     private String table;
     private String dbtype;
@@ -0,0 +1,64 @@
+package fr.insee.trevas.lab.model;
+
+/**
+ * Quotas of a pool. Running jobs are counted across the replicas sharing the job store. Executor
+ * cores have no ceiling: the running pools share them by weight, each getting at least its minShare
+ * when it has enough tasks.
+ */
+public class QuotaUsage {
+
+    private String pool;
+    private int runningJobs;
+    private int maxConcurrentJobs;
+    private int maxRows;
+    private int weight;
+    private int minShare;
+
+    public String getPool() {
+        return pool;
+    }
+
+    public void setPool(String pool) {
+        this.pool = pool;
+    }
+
+    public int getRunningJobs() {
+        return runningJobs;
+    }
+
+    public void setRunningJobs(int runningJobs) {
+        this.runningJobs = runningJobs;
+    }
+
+    public int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public int getMinShare() {
+        return minShare;
+    }
+
+    public void setMinShare(int minShare) {
+        this.minShare = minShare;
+    }
+}
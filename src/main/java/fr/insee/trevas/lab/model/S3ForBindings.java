@@ -1,9 +1,16 @@
 package fr.insee.trevas.lab.model;
 
+import java.util.Map;
+
 public class S3ForBindings {
 
     private String url;
     private String filetype;
+    private Map<String, String> options;
+    private String schema;
+    private Boolean broadcast;
+    private Boolean stream;
+    private String committer;
 
     public String getUrl() {
         return url;
@@ -20,4 +27,62 @@ public class S3ForBindings {
     public void setFiletype(String filetype) {
         this.filetype = filetype;
     }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    public void setOptions(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public void setSchema(String schema) {
+        this.schema = schema;
+    }
+
+    public Boolean getBroadcast() {
+        return broadcast;
+    }
+
+    public void setBroadcast(Boolean broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    public Boolean getStream() {
+        return stream;
+    }
+
+    public void setStream(Boolean stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * S3A committer of the output (directory, partitioned, magic or file), app.committer.name by default.
+     */
+    public String getCommitter() {
+        return committer;
+    }
+
+    public void setCommitter(String committer) {
+        this.committer = committer;
+    }
+
+    /**
+     * Shallow copy, sharing the options.
+     */
+    public S3ForBindings copy() {
+        S3ForBindings copy = new S3ForBindings();
+        copy.setUrl(url);
+        copy.setFiletype(filetype);
+        copy.setOptions(options);
+        copy.setSchema(schema);
+        copy.setBroadcast(broadcast);
+        copy.setStream(stream);
+        copy.setCommitter(committer);
+        return copy;
+    }
 }
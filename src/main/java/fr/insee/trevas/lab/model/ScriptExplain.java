@@ -0,0 +1,59 @@
+package fr.insee.trevas.lab.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans of a script, computed without its results. Building it may run the Spark jobs that resolve
+ * the inputs: Delta transaction logs, schema inference of JSON and schema-less CSV inputs, parquet
+ * footers. Give CSV inputs a schema to avoid reading their files.
+ */
+public class ScriptExplain {
+
+    private Map<String, Long> inputBytes;
+    private Long totalInputBytes;
+    private List<String> undecidedBroadcasts;
+    private Map<String, DatasetExplain> outputs;
+
+    /**
+     * Estimated size of each input, null when unknown (JDBC queries).
+     */
+    public Map<String, Long> getInputBytes() {
+        return inputBytes;
+    }
+
+    public void setInputBytes(Map<String, Long> inputBytes) {
+        this.inputBytes = inputBytes;
+    }
+
+    /**
+     * Sum of the known input sizes.
+     */
+    public Long getTotalInputBytes() {
+        return totalInputBytes;
+    }
+
+    public void setTotalInputBytes(Long totalInputBytes) {
+        this.totalInputBytes = totalInputBytes;
+    }
+
+    /**
+     * JDBC inputs without a broadcast hint. The plans do not broadcast them, a run decides once their
+     * rows are counted.
+     */
+    public List<String> getUndecidedBroadcasts() {
+        return undecidedBroadcasts;
+    }
+
+    public void setUndecidedBroadcasts(List<String> undecidedBroadcasts) {
+        this.undecidedBroadcasts = undecidedBroadcasts;
+    }
+
+    public Map<String, DatasetExplain> getOutputs() {
+        return outputs;
+    }
+
+    public void setOutputs(Map<String, DatasetExplain> outputs) {
+        this.outputs = outputs;
+    }
+}
@@ -0,0 +1,100 @@
+package fr.insee.trevas.lab.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timed phase of a job. Closing the span records its duration.
+ */
+public class Span implements AutoCloseable {
+
+    private String name;
+    private String category;
+    private String thread;
+    private long startMicros;
+    private long durationMicros;
+    private Map<String, Object> attributes = new LinkedHashMap<>();
+
+    @JsonIgnore
+    private long startNanos;
+
+    public Span() {
+    }
+
+    public Span(String name, String category, String thread, long startMicros, long durationMicros) {
+        this.name = name;
+        this.category = category;
+        this.thread = thread;
+        this.startMicros = startMicros;
+        this.durationMicros = durationMicros;
+    }
+
+    static Span start(String name, String category) {
+        Span span = new Span(name, category, Thread.currentThread().getName(),
+                ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now()), 0);
+        span.startNanos = System.nanoTime();
+        return span;
+    }
+
+    public Span attribute(String key, Object value) {
+        attributes.put(key, value);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        durationMicros = (System.nanoTime() - startNanos) / 1000;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    public void setThread(String thread) {
+        this.thread = thread;
+    }
+
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    public void setStartMicros(long startMicros) {
+        this.startMicros = startMicros;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    public void setDurationMicros(long durationMicros) {
+        this.durationMicros = durationMicros;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(Map<String, Object> attributes) {
+        this.attributes = attributes;
+    }
+}
@@ -1,5 +1,5 @@
 package fr.insee.trevas.lab.model;
 
 public enum Status {
-    READY, RUNNING, FAILED, DONE
+    READY, RUNNING, FAILED, DONE, CANCELLED
 }
@@ -0,0 +1,42 @@
+package fr.insee.trevas.lab.model;
+
+/**
+ * Settings of a STREAMING job.
+ */
+public class Streaming {
+
+    /**
+     * Where the progress is kept, so that a restarted job resumes after the last processed files.
+     * Defaults to {@code <writePath>/_checkpoint}.
+     */
+    private String checkpointLocation;
+    /**
+     * Interval between two checks for new files; 0 processes the files already there, then stops.
+     */
+    private Long triggerSeconds;
+    private Integer maxFilesPerTrigger;
+
+    public String getCheckpointLocation() {
+        return checkpointLocation;
+    }
+
+    public void setCheckpointLocation(String checkpointLocation) {
+        this.checkpointLocation = checkpointLocation;
+    }
+
+    public Long getTriggerSeconds() {
+        return triggerSeconds;
+    }
+
+    public void setTriggerSeconds(Long triggerSeconds) {
+        this.triggerSeconds = triggerSeconds;
+    }
+
+    public Integer getMaxFilesPerTrigger() {
+        return maxFilesPerTrigger;
+    }
+
+    public void setMaxFilesPerTrigger(Integer maxFilesPerTrigger) {
+        this.maxFilesPerTrigger = maxFilesPerTrigger;
+    }
+}
@@ -0,0 +1,39 @@
+package fr.insee.trevas.lab.model;
+
+import java.util.Map;
+
+/**
+ * Spark SQL configuration of a job: a preset of {@code app.tuning.profiles}, shuffle partitions
+ * sized from the inputs when {@code auto} is set, then the overrides allowed by
+ * {@code app.tuning.allowed-overrides}, each one taking precedence over the previous.
+ */
+public class Tuning {
+
+    private String profile;
+    private Boolean auto;
+    private Map<String, String> overrides;
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public void setProfile(String profile) {
+        this.profile = profile;
+    }
+
+    public Boolean getAuto() {
+        return auto;
+    }
+
+    public void setAuto(Boolean auto) {
+        this.auto = auto;
+    }
+
+    public Map<String, String> getOverrides() {
+        return overrides;
+    }
+
+    public void setOverrides(Map<String, String> overrides) {
+        this.overrides = overrides;
+    }
+}
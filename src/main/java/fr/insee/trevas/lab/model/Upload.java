@@ -0,0 +1,35 @@
+package fr.insee.trevas.lab.model;
+
+import java.util.List;
+import java.util.Map;
+
+public class Upload {
+
+    private S3ForBindings binding;
+    private List<Map<String, Object>> dataStructure;
+    private Long rowCount;
+
+    public S3ForBindings getBinding() {
+        return binding;
+    }
+
+    public void setBinding(S3ForBindings binding) {
+        this.binding = binding;
+    }
+
+    public List<Map<String, Object>> getDataStructure() {
+        return dataStructure;
+    }
+
+    public void setDataStructure(List<Map<String, Object>> dataStructure) {
+        this.dataStructure = dataStructure;
+    }
+
+    public Long getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(Long rowCount) {
+        this.rowCount = rowCount;
+    }
+}
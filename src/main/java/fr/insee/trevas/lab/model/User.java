@@ -1,5 +1,7 @@
 package fr.insee.trevas.lab.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.List;
 
 public class User {
@@ -25,6 +27,7 @@ public class User {
         this.id = id;
     }
 
+    @JsonIgnore
     public String getAuthToken() {
         return authToken;
     }
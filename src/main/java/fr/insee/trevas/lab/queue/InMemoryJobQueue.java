@@ -0,0 +1,40 @@
+package fr.insee.trevas.lab.queue;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in of the shared queue, for a single replica and for tests.
+ */
+@Component
+@ConditionalOnProperty(name = "app.jobs.queue.type", havingValue = "memory")
+public class InMemoryJobQueue implements JobQueue {
+
+    private final BlockingQueue<UUID> queue = new LinkedBlockingQueue<>();
+
+    @Override
+    public void enqueue(UUID id) {
+        queue.add(id);
+    }
+
+    @Override
+    public Optional<UUID> claim(long timeoutMs) throws InterruptedException {
+        return Optional.ofNullable(queue.poll(timeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void ack(UUID id) {
+        // Claimed jobs are already out of the queue
+    }
+
+    @Override
+    public void release(UUID id) {
+        queue.add(id);
+    }
+}
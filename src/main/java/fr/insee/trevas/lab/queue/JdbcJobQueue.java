@@ -0,0 +1,131 @@
+package fr.insee.trevas.lab.queue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.sql.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Queue shared by the replicas through the job store database.
+ * <p>
+ * Claiming marks the queue row with the claimer and the time: the replica whose update affects the row
+ * owns the job, which works on every database without row locking extensions. The row is only deleted
+ * once the job is recorded as owned (see {@link #ack}); a claim left unacknowledged for
+ * {@code app.jobs.lease.timeout-ms}, by a replica which died in between, is claimed again.
+ */
+@Component
+@ConditionalOnProperty(name = "app.jobs.queue.type", havingValue = "jdbc")
+public class JdbcJobQueue implements JobQueue {
+
+    private static final String CREATE = "CREATE TABLE IF NOT EXISTS trevas_job_queue (" +
+            "id VARCHAR(36) PRIMARY KEY, " +
+            "enqueued_at TIMESTAMP NOT NULL)";
+    private static final String ADD_CLAIMED_BY = "ALTER TABLE trevas_job_queue ADD COLUMN IF NOT EXISTS claimed_by VARCHAR(255)";
+    private static final String ADD_CLAIMED_AT = "ALTER TABLE trevas_job_queue ADD COLUMN IF NOT EXISTS claimed_at TIMESTAMP";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String instanceId;
+    private final long claimTimeoutMs;
+
+    public JdbcJobQueue(@Value("${app.jobs.store.url:jdbc:h2:file:./data/trevas-lab}") String url,
+                        @Value("${app.jobs.store.user:}") String user,
+                        @Value("${app.jobs.store.password:}") String password,
+                        @Value("${app.instance-id:${HOSTNAME:local}}") String instanceId,
+                        @Value("${app.jobs.lease.timeout-ms:60000}") long claimTimeoutMs) throws SQLException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.instanceId = instanceId;
+        this.claimTimeoutMs = claimTimeoutMs;
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute(CREATE);
+            statement.execute(ADD_CLAIMED_BY);
+            statement.execute(ADD_CLAIMED_AT);
+        }
+    }
+
+    @Override
+    public void enqueue(UUID id) {
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO trevas_job_queue (id, enqueued_at) VALUES (?, ?)")) {
+            statement.setString(1, id.toString());
+            statement.setTimestamp(2, Timestamp.from(Instant.now()));
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not enqueue job " + id, e);
+        }
+    }
+
+    @Override
+    public Optional<UUID> claim(long timeoutMs) throws InterruptedException {
+        Instant now = Instant.now();
+        Timestamp expiry = Timestamp.from(now.minusMillis(claimTimeoutMs));
+        try (Connection connection = connect()) {
+            List<String> candidates = new ArrayList<>();
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT id FROM trevas_job_queue WHERE claimed_at IS NULL OR claimed_at < ? ORDER BY enqueued_at")) {
+                select.setTimestamp(1, expiry);
+                select.setMaxRows(10);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) candidates.add(resultSet.getString(1));
+                }
+            }
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE trevas_job_queue SET claimed_by = ?, claimed_at = ? " +
+                            "WHERE id = ? AND (claimed_at IS NULL OR claimed_at < ?)")) {
+                for (String candidate : candidates) {
+                    update.setString(1, instanceId);
+                    update.setTimestamp(2, Timestamp.from(now));
+                    update.setString(3, candidate);
+                    update.setTimestamp(4, expiry);
+                    if (update.executeUpdate() == 1) return Optional.of(UUID.fromString(candidate));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not claim a job", e);
+        }
+        Thread.sleep(timeoutMs);
+        return Optional.empty();
+    }
+
+    @Override
+    public void ack(UUID id) {
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "DELETE FROM trevas_job_queue WHERE id = ? AND claimed_by = ?")) {
+            statement.setString(1, id.toString());
+            statement.setString(2, instanceId);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not acknowledge job " + id, e);
+        }
+    }
+
+    @Override
+    public void release(UUID id) {
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "UPDATE trevas_job_queue SET claimed_by = NULL, claimed_at = NULL, enqueued_at = ? " +
+                             "WHERE id = ? AND claimed_by = ?")) {
+            statement.setTimestamp(1, Timestamp.from(Instant.now()));
+            statement.setString(2, id.toString());
+            statement.setString(3, instanceId);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not release job " + id, e);
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+}
@@ -0,0 +1,28 @@
+package fr.insee.trevas.lab.queue;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Queue of submitted jobs, from which every replica claims work when it has spare capacity.
+ */
+public interface JobQueue {
+
+    void enqueue(UUID id);
+
+    /**
+     * Claims the oldest queued job, waiting at most {@code timeoutMs}. A job is handed to one claimer only,
+     * until its claim is acknowledged or released, or expires.
+     */
+    Optional<UUID> claim(long timeoutMs) throws InterruptedException;
+
+    /**
+     * Removes a claimed job, once its execution is recorded in the job store.
+     */
+    void ack(UUID id);
+
+    /**
+     * Hands a claimed job back to the end of the queue, for this or another replica.
+     */
+    void release(UUID id);
+}
@@ -0,0 +1,91 @@
+package fr.insee.trevas.lab.repository;
+
+import fr.insee.trevas.lab.model.Job;
+import fr.insee.trevas.lab.model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@Repository
+@ConditionalOnProperty(name = "app.jobs.store.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryJobRepository implements JobRepository {
+
+    private final Map<UUID, Job> jobs = new ConcurrentHashMap<>();
+    private final Set<UUID> cancelRequests = ConcurrentHashMap.newKeySet();
+
+    @Value("${app.jobs.store.status-retention-hours:24}")
+    private long statusRetentionHours;
+
+    @Override
+    public void save(Job job) {
+        jobs.put(job.id, job);
+    }
+
+    @Override
+    public void saveNow(Job job) {
+        save(job);
+    }
+
+    @Override
+    public Optional<Job> findById(UUID id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    @Override
+    public boolean keepsCredentials() {
+        return true;
+    }
+
+    @Override
+    public void failUnfinished(String owner, String reason) {
+        // Nothing survives the process
+    }
+
+    @Override
+    public void heartbeat(String owner) {
+        // Jobs live and die with this process
+    }
+
+    @Override
+    public void expireLeases(long leaseMs, String reason) {
+        // Jobs live and die with this process
+    }
+
+    @Override
+    public void requestCancel(UUID id) {
+        cancelRequests.add(id);
+    }
+
+    @Override
+    public List<User> runningElsewhere(String owner) {
+        // There is no other replica
+        return List.of();
+    }
+
+    @Override
+    public Set<UUID> cancelRequested(Collection<UUID> ids) {
+        return ids.stream().filter(cancelRequests::contains).collect(Collectors.toSet());
+    }
+
+    /**
+     * Finished jobs are stripped down to their status, then dropped after the status retention.
+     */
+    @Override
+    public void evictFinished(long finishedBefore) {
+        long dropBefore = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(statusRetentionHours);
+        jobs.values().forEach(job -> {
+            if (!job.isFinished() || job.finishedAt >= finishedBefore) return;
+            if (job.finishedAt < dropBefore) {
+                jobs.remove(job.id, job);
+                cancelRequests.remove(job.id);
+            } else if (job.definition != null) {
+                jobs.replace(job.id, job, job.summary());
+            }
+        });
+    }
+}
@@ -0,0 +1,348 @@
+package fr.insee.trevas.lab.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import fr.insee.trevas.lab.model.ErrorSummary;
+import fr.insee.trevas.lab.model.Job;
+import fr.insee.trevas.lab.model.Status;
+import fr.insee.trevas.lab.model.User;
+import fr.insee.trevas.lab.utils.Credentials;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Job store in a JDBC database: an embedded H2 file by default, or a shared database
+ * (PostgreSQL...) when several replicas run.
+ * <p>
+ * Saves are buffered and written in batches by a background thread, off the request path.
+ * <p>
+ * Payloads never contain passwords. Those of unfinished jobs are sealed with AES-GCM under
+ * {@code app.jobs.store.secret-key} in their own column, for the replica claiming the job; without a
+ * key they are not stored at all.
+ * <p>
+ * The {@code updated_at} column of an unfinished job is its lease: the owner renews it with
+ * {@link #heartbeat}, and any replica fails the jobs whose lease expired.
+ */
+@Repository
+@ConditionalOnProperty(name = "app.jobs.store.type", havingValue = "jdbc")
+public class JdbcJobRepository implements JobRepository {
+
+    private static final Logger logger = LogManager.getLogger(JdbcJobRepository.class);
+
+    private static final String CREATE = "CREATE TABLE IF NOT EXISTS trevas_job (" +
+            "id VARCHAR(36) PRIMARY KEY, " +
+            "status VARCHAR(16) NOT NULL, " +
+            "owner VARCHAR(255), " +
+            "payload TEXT NOT NULL, " +
+            "updated_at TIMESTAMP NOT NULL, " +
+            "cancel_requested BOOLEAN DEFAULT FALSE NOT NULL)";
+    private static final String ADD_CREDENTIALS = "ALTER TABLE trevas_job ADD COLUMN IF NOT EXISTS credentials TEXT";
+    private static final String UPDATE = "UPDATE trevas_job SET status = ?, owner = ?, payload = ?, credentials = ?, updated_at = ? WHERE id = ?";
+    private static final String INSERT = "INSERT INTO trevas_job (status, owner, payload, credentials, updated_at, id) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final int IV_BYTES = 12;
+    private static final int POOL_SIZE = 4;
+
+    private final ObjectMapper objectMapper;
+    private final HikariDataSource dataSource;
+    private final SecretKeySpec secretKey;
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<UUID, Job> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+
+    public JdbcJobRepository(ObjectMapper objectMapper,
+                             @Value("${app.jobs.store.url:jdbc:h2:file:./data/trevas-lab}") String url,
+                             @Value("${app.jobs.store.user:}") String user,
+                             @Value("${app.jobs.store.password:}") String password,
+                             @Value("${app.jobs.store.flush-interval-ms:500}") long flushIntervalMs,
+                             @Value("${app.jobs.store.secret-key:}") String secretKey) throws SQLException {
+        this.objectMapper = objectMapper;
+        // Leases, cancellation requests and flushes hit the store every few seconds
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("trevas-job-store");
+        config.setJdbcUrl(url);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setMaximumPoolSize(POOL_SIZE);
+        this.dataSource = new HikariDataSource(config);
+        this.secretKey = secretKey.isBlank() ? null : new SecretKeySpec(Base64.getDecoder().decode(secretKey), "AES");
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute(CREATE);
+            statement.execute(ADD_CREDENTIALS);
+        }
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void save(Job job) {
+        pending.put(job.id, job);
+    }
+
+    @Override
+    public void saveNow(Job job) {
+        pending.put(job.id, job);
+        flush();
+    }
+
+    @Override
+    public Optional<Job> findById(UUID id) {
+        Job job = pending.get(id);
+        if (job != null) return Optional.of(job);
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT payload, credentials FROM trevas_job WHERE id = ?")) {
+            statement.setString(1, id.toString());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) return Optional.empty();
+                Job job = objectMapper.readValue(resultSet.getString(1), Job.class);
+                Credentials.restore(job.definition, open(job.id, resultSet.getString(2)));
+                return Optional.of(job);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not read job " + id, e);
+        }
+    }
+
+    @Override
+    public boolean keepsCredentials() {
+        return secretKey != null;
+    }
+
+    @Override
+    public void failUnfinished(String owner, String reason) {
+        flush();
+        List<Job> unfinished = new ArrayList<>();
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT payload FROM trevas_job WHERE owner = ? AND status IN ('READY', 'RUNNING')")) {
+            statement.setString(1, owner);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) unfinished.add(objectMapper.readValue(resultSet.getString(1), Job.class));
+            }
+        } catch (Exception e) {
+            logger.warn("Could not recover the unfinished jobs of {}: ", owner, e);
+        }
+        for (Job job : unfinished) {
+            job.status = Status.FAILED;
+            job.error = new ErrorSummary("InterruptedException", reason);
+            save(job);
+        }
+        if (!unfinished.isEmpty()) logger.info("{} unfinished jobs of {} marked as failed", unfinished.size(), owner);
+    }
+
+    @Override
+    public void heartbeat(String owner) {
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "UPDATE trevas_job SET updated_at = ? WHERE owner = ? AND status IN ('READY', 'RUNNING')")) {
+            statement.setTimestamp(1, Timestamp.from(Instant.now()));
+            statement.setString(2, owner);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            logger.warn("Could not renew the job leases of {}: ", owner, e);
+        }
+    }
+
+    @Override
+    public void expireLeases(long leaseMs, String reason) {
+        Timestamp expiry = Timestamp.from(Instant.now().minusMillis(leaseMs));
+        try (Connection connection = connect()) {
+            List<Job> expired = new ArrayList<>();
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT payload FROM trevas_job WHERE owner IS NOT NULL AND status IN ('READY', 'RUNNING') AND updated_at < ?")) {
+                select.setTimestamp(1, expiry);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) expired.add(objectMapper.readValue(resultSet.getString(1), Job.class));
+                }
+            }
+            // Only while the lease is still expired, in case the owner came back meanwhile
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE trevas_job SET status = ?, payload = ?, credentials = NULL, updated_at = ? " +
+                            "WHERE id = ? AND status IN ('READY', 'RUNNING') AND updated_at < ?")) {
+                for (Job job : expired) {
+                    job.status = Status.FAILED;
+                    job.error = new ErrorSummary("InterruptedException", reason + " (" + job.owner + ")");
+                    update.setString(1, job.status.name());
+                    update.setString(2, objectMapper.writeValueAsString(job));
+                    update.setTimestamp(3, Timestamp.from(Instant.now()));
+                    update.setString(4, job.id.toString());
+                    update.setTimestamp(5, expiry);
+                    if (update.executeUpdate() == 1) logger.info("Job {} of {} failed: lease expired", job.id, job.owner);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Could not expire the job leases: ", e);
+        }
+    }
+
+    @Override
+    public void requestCancel(UUID id) {
+        flush();
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "UPDATE trevas_job SET cancel_requested = TRUE WHERE id = ?")) {
+            statement.setString(1, id.toString());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not request the cancellation of job " + id, e);
+        }
+    }
+
+    @Override
+    public List<User> runningElsewhere(String owner) {
+        List<User> users = new ArrayList<>();
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT payload FROM trevas_job WHERE status = 'RUNNING' AND owner IS NOT NULL AND owner <> ?")) {
+            statement.setString(1, owner);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    Job job = objectMapper.readValue(resultSet.getString(1), Job.class);
+                    // Scripts of a batch run under the job slot of their batch
+                    if (job.parent == null) users.add(job.user);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Could not read the jobs running on other replicas: ", e);
+        }
+        return users;
+    }
+
+    @Override
+    public Set<UUID> cancelRequested(Collection<UUID> ids) {
+        Set<UUID> requested = new HashSet<>();
+        if (ids.isEmpty()) return requested;
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        try (Connection connection = connect();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT id FROM trevas_job WHERE cancel_requested = TRUE AND id IN (" + placeholders + ")")) {
+            int index = 1;
+            for (UUID id : ids) statement.setString(index++, id.toString());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) requested.add(UUID.fromString(resultSet.getString(1)));
+            }
+        } catch (SQLException e) {
+            logger.warn("Could not read the cancellation requests: ", e);
+        }
+        return requested;
+    }
+
+    @Override
+    public void evictFinished(long finishedBefore) {
+        // Rows live in the database, nothing is held in memory past the flush
+    }
+
+    @PreDestroy
+    public void close() {
+        flusher.shutdown();
+        flush();
+        dataSource.close();
+    }
+
+    synchronized void flush() {
+        if (pending.isEmpty()) return;
+        List<Job> batch = new ArrayList<>(pending.values());
+        // Removed before serialization: a save happening meanwhile is written by the next flush
+        batch.forEach(job -> pending.remove(job.id, job));
+        try (Connection connection = connect()) {
+            connection.setAutoCommit(false);
+            Timestamp now = Timestamp.from(Instant.now());
+            List<String> payloads = new ArrayList<>();
+            List<String> credentials = new ArrayList<>();
+            for (Job job : batch) {
+                payloads.add(objectMapper.writeValueAsString(job));
+                credentials.add(seal(job));
+            }
+            int[] updated;
+            try (PreparedStatement update = connection.prepareStatement(UPDATE)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    bind(update, batch.get(i), payloads.get(i), credentials.get(i), now);
+                    update.addBatch();
+                }
+                updated = update.executeBatch();
+            }
+            try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+                boolean inserts = false;
+                for (int i = 0; i < batch.size(); i++) {
+                    if (updated[i] != 0) continue;
+                    bind(insert, batch.get(i), payloads.get(i), credentials.get(i), now);
+                    insert.addBatch();
+                    inserts = true;
+                }
+                if (inserts) insert.executeBatch();
+            }
+            connection.commit();
+        } catch (Exception e) {
+            logger.warn("Job store flush failed, retrying later: ", e);
+            batch.forEach(job -> pending.putIfAbsent(job.id, job));
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Job job, String payload, String credentials, Timestamp now)
+            throws SQLException {
+        statement.setString(1, job.status.name());
+        statement.setString(2, job.owner);
+        statement.setString(3, payload);
+        statement.setString(4, credentials);
+        statement.setTimestamp(5, now);
+        statement.setString(6, job.id.toString());
+    }
+
+    /**
+     * Passwords of an unfinished job, encrypted and bound to its id. Finished jobs drop them.
+     */
+    String seal(Job job) throws Exception {
+        if (secretKey == null || job.status == Status.DONE || job.status == Status.FAILED
+                || job.status == Status.CANCELLED) return null;
+        Map<String, String> credentials = Credentials.of(job.definition);
+        if (credentials.isEmpty()) return null;
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(128, iv));
+        cipher.updateAAD(job.id.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] sealed = cipher.doFinal(objectMapper.writeValueAsBytes(credentials));
+        byte[] stored = Arrays.copyOf(iv, IV_BYTES + sealed.length);
+        System.arraycopy(sealed, 0, stored, IV_BYTES, sealed.length);
+        return Base64.getEncoder().encodeToString(stored);
+    }
+
+    Map<String, String> open(UUID id, String stored) {
+        if (stored == null || secretKey == null) return null;
+        try {
+            byte[] bytes = Base64.getDecoder().decode(stored);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(128, bytes, 0, IV_BYTES));
+            cipher.updateAAD(id.toString().getBytes(StandardCharsets.UTF_8));
+            byte[] json = cipher.doFinal(bytes, IV_BYTES, bytes.length - IV_BYTES);
+            return objectMapper.readValue(json, new TypeReference<Map<String, String>>() {
+            });
+        } catch (Exception e) {
+            logger.warn("Could not open the credentials of job {}: ", id, e);
+            return null;
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        return dataSource.getConnection();
+    }
+}
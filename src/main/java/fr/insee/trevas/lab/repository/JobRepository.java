@@ -0,0 +1,76 @@
+package fr.insee.trevas.lab.repository;
+
+import fr.insee.trevas.lab.model.Job;
+import fr.insee.trevas.lab.model.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Storage of the job status, outputs and error summaries.
+ * <p>
+ * Bindings, futures and cancellation hooks only live in the process executing the job.
+ */
+public interface JobRepository {
+
+    /**
+     * Records the current state of the job. Implementations may write asynchronously.
+     */
+    void save(Job job);
+
+    /**
+     * Records the job before returning, for jobs other replicas are about to read.
+     */
+    void saveNow(Job job);
+
+    /**
+     * Jobs are found with the passwords of their definition, which are never part of its JSON.
+     */
+    Optional<Job> findById(UUID id);
+
+    /**
+     * Whether the passwords of a saved job are kept, so that another replica can run it.
+     */
+    boolean keepsCredentials();
+
+    /**
+     * Fails the unfinished jobs of an owner, whose execution was lost with its process.
+     */
+    void failUnfinished(String owner, String reason);
+
+    /**
+     * Renews the lease of the unfinished jobs of an owner, which is alive.
+     */
+    void heartbeat(String owner);
+
+    /**
+     * Fails the unfinished jobs whose owner has not renewed their lease for {@code leaseMs}: the
+     * process running them is gone, whatever its id was.
+     */
+    void expireLeases(long leaseMs, String reason);
+
+    /**
+     * Asks the replica running the job to cancel it.
+     */
+    void requestCancel(UUID id);
+
+    /**
+     * Users of the top-level jobs running on other replicas than {@code owner}, for the quotas to
+     * hold across replicas.
+     */
+    List<User> runningElsewhere(String owner);
+
+    /**
+     * Those of the jobs whose cancellation was requested, in one round trip.
+     */
+    Set<UUID> cancelRequested(Collection<UUID> ids);
+
+    /**
+     * Lets go of what the store no longer needs of the jobs finished before {@code finishedBefore}:
+     * their results have been released, only their status is still read.
+     */
+    void evictFinished(long finishedBefore);
+}
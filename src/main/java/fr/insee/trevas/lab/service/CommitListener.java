@@ -0,0 +1,104 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.utils.Utils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.execution.QueryExecution;
+import org.apache.spark.sql.execution.SparkPlan;
+import org.apache.spark.sql.execution.command.DataWritingCommandExec;
+import org.apache.spark.sql.execution.datasources.InsertIntoHadoopFsRelationCommand;
+import org.apache.spark.sql.execution.metric.SQLMetric;
+import org.apache.spark.sql.util.QueryExecutionListener;
+import scala.Tuple2;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write metrics of file outputs (jobCommitTime, numFiles, numOutputBytes...), matched by their
+ * qualified output path, with the join operators of the plan that ran. Execution listeners are called
+ * asynchronously: writers announce the path with {@link #expect} before writing, then {@link #await}
+ * the metrics.
+ */
+public class CommitListener implements QueryExecutionListener {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final Map<String, CompletableFuture<Commit>> expected = new ConcurrentHashMap<>();
+
+    /**
+     * @param joins join operators of the final plan, adaptive execution having re-planned them while running
+     */
+    public record Commit(Map<String, Long> metrics, List<String> joins) {
+    }
+
+    public static String qualify(Configuration conf, String url) throws IOException {
+        Path path = new Path(url);
+        return path.getFileSystem(conf).makeQualified(path).toString();
+    }
+
+    public CompletableFuture<Commit> expect(String path) {
+        CompletableFuture<Commit> metrics = new CompletableFuture<>();
+        expected.put(path, metrics);
+        return metrics;
+    }
+
+    /**
+     * Metrics of the write, or null when they did not come in time.
+     */
+    public Commit await(String path, CompletableFuture<Commit> metrics) {
+        try {
+            return metrics.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            return null;
+        } finally {
+            expected.remove(path, metrics);
+        }
+    }
+
+    /**
+     * Stops waiting for the metrics of a write which failed before running.
+     */
+    public void forget(String path, CompletableFuture<Commit> metrics) {
+        expected.remove(path, metrics);
+    }
+
+    @Override
+    public void onSuccess(String funcName, QueryExecution qe, long durationNs) {
+        InsertIntoHadoopFsRelationCommand insert = findInsert(qe.executedPlan());
+        if (insert == null) return;
+        CompletableFuture<Commit> metrics = expected.remove(insert.outputPath().toString());
+        if (metrics == null) return;
+        Map<String, Long> values = new HashMap<>();
+        scala.collection.Iterator<Tuple2<String, SQLMetric>> iterator = insert.metrics().iterator();
+        while (iterator.hasNext()) {
+            Tuple2<String, SQLMetric> metric = iterator.next();
+            values.put(metric._1(), metric._2().value());
+        }
+        metrics.complete(new Commit(values, Utils.joinStrategies(qe.executedPlan())));
+    }
+
+    @Override
+    public void onFailure(String funcName, QueryExecution qe, Exception exception) {
+        InsertIntoHadoopFsRelationCommand insert = findInsert(qe.executedPlan());
+        if (insert == null) return;
+        CompletableFuture<Commit> metrics = expected.remove(insert.outputPath().toString());
+        if (metrics != null) metrics.completeExceptionally(exception);
+    }
+
+    private static InsertIntoHadoopFsRelationCommand findInsert(SparkPlan plan) {
+        if (plan instanceof DataWritingCommandExec exec
+                && exec.cmd() instanceof InsertIntoHadoopFsRelationCommand insert) return insert;
+        scala.collection.Iterator<SparkPlan> children = plan.children().iterator();
+        while (children.hasNext()) {
+            InsertIntoHadoopFsRelationCommand insert = findInsert(children.next());
+            if (insert != null) return insert;
+        }
+        return null;
+    }
+}
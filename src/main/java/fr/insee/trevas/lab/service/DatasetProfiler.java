@@ -0,0 +1,165 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.model.*;
+import fr.insee.trevas.lab.utils.Fingerprints;
+import fr.insee.trevas.lab.utils.LruCache;
+import fr.insee.trevas.lab.utils.ParquetFooters;
+import jakarta.annotation.PreDestroy;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.NumericType;
+import org.apache.spark.sql.types.StructField;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.apache.spark.sql.functions.*;
+
+/**
+ * Column statistics computed in a single aggregation: exact null counts and bounds, HyperLogLog
+ * distinct estimates, approximate quantiles and histograms. For parquet inputs, counts and bounds
+ * are taken from the file footers when possible. Profiles of S3 inputs are cached by fingerprint.
+ */
+@Service
+public class DatasetProfiler {
+
+    private static final Logger logger = LogManager.getLogger(DatasetProfiler.class);
+
+    private static final double[] QUANTILES = {0.25, 0.5, 0.75};
+
+    @Autowired
+    private SparkEngine sparkEngine;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Value("${app.profile.relative-sd:0.05}")
+    private double relativeSd;
+
+    @Value("${app.profile.histogram-bins:10}")
+    private int histogramBins;
+
+    private final LruCache<String, DatasetProfile> profiles;
+
+    private final ExecutorService footerReaders;
+
+    public DatasetProfiler(@Value("${app.profile.cache-size:200}") int cacheSize,
+                           @Value("${app.profile.footer-readers:16}") int footerReaders) {
+        this.profiles = new LruCache<>(cacheSize);
+        this.footerReaders = Executors.newFixedThreadPool(footerReaders);
+    }
+
+    @PreDestroy
+    public void stop() {
+        footerReaders.shutdownNow();
+    }
+
+    public DatasetProfile getS3Profile(User user, S3ForBindings s3) throws Exception {
+        SparkSession spark = sparkEngine.buildSparkSession();
+        quotaService.usePool(spark, user);
+        Configuration conf = spark.sparkContext().hadoopConfiguration();
+        String fingerprint = Fingerprints.of(conf, s3);
+        DatasetProfile cached = profiles.get(fingerprint);
+        if (cached != null) return cached;
+        ParquetFooters footers = null;
+        // A user schema may change how the values are decoded
+        if ("parquet".equals(s3.getFiletype()) && s3.getSchema() == null) {
+            try {
+                footers = ParquetFooters.read(conf, s3.getUrl(), footerReaders);
+            } catch (Exception e) {
+                logger.warn("Could not read parquet footers of {}: ", s3.getUrl(), e);
+            }
+        }
+        DatasetProfile profile = profile(sparkEngine.readS3Dataset(spark, s3, null).getSparkDataset(), footers);
+        profiles.put(fingerprint, profile);
+        return profile;
+    }
+
+    /**
+     * Not cached: there is no cheap way to know whether the result of a query changed.
+     */
+    public DatasetProfile getJDBCProfile(User user, QueriesForBindings queriesForBindings) throws Exception {
+        SparkSession spark = sparkEngine.buildSparkSession();
+        quotaService.usePool(spark, user);
+        return profile(sparkEngine.readJDBCDataset(spark, queriesForBindings, null).getSparkDataset(), null);
+    }
+
+    private DatasetProfile profile(Dataset<Row> dataset, ParquetFooters footers) {
+        StructField[] fields = dataset.schema().fields();
+        List<Column> aggregations = new ArrayList<>();
+        aggregations.add(footers == null ? count(lit(1)).as("rows") : lit(footers.getRowCount()).as("rows"));
+        for (int i = 0; i < fields.length; i++) {
+            Column column = col("`" + fields[i].name().replace("`", "``") + "`");
+            if (footers == null || footers.getColumn(fields[i].name()) == null) {
+                aggregations.add(count(column).as("count" + i));
+                aggregations.add(min(column).as("min" + i));
+                aggregations.add(max(column).as("max" + i));
+            }
+            aggregations.add(approx_count_distinct(column, relativeSd).as("distinct" + i));
+            if (fields[i].dataType() instanceof NumericType) {
+                aggregations.add(percentile_approx(column, lit(QUANTILES), lit(10000)).as("quantiles" + i));
+                aggregations.add(expr("histogram_numeric(`" + fields[i].name().replace("`", "``") + "`, "
+                        + histogramBins + ")").as("histogram" + i));
+            }
+        }
+        Row row = dataset.agg(aggregations.get(0), aggregations.subList(1, aggregations.size()).toArray(new Column[0]))
+                .head();
+
+        long rows = ((Number) row.getAs("rows")).longValue();
+        List<ColumnProfile> columns = new ArrayList<>();
+        for (int i = 0; i < fields.length; i++) {
+            ColumnProfile column = new ColumnProfile();
+            column.setName(fields[i].name());
+            column.setType(fields[i].dataType().simpleString());
+            ParquetFooters.ColumnStatistics statistics = footers == null ? null : footers.getColumn(fields[i].name());
+            if (statistics != null) {
+                column.setNullCount(statistics.getNullCount());
+                column.setMin(toJson(statistics.getMin()));
+                column.setMax(toJson(statistics.getMax()));
+            } else {
+                column.setNullCount(rows - ((Number) row.getAs("count" + i)).longValue());
+                column.setMin(toJson(row.getAs("min" + i)));
+                column.setMax(toJson(row.getAs("max" + i)));
+            }
+            column.setDistinctCount(((Number) row.getAs("distinct" + i)).longValue());
+            if (fields[i].dataType() instanceof NumericType) {
+                List<Object> quantiles = row.getList(row.fieldIndex("quantiles" + i));
+                if (quantiles != null) {
+                    Map<String, Double> values = new LinkedHashMap<>();
+                    for (int q = 0; q < QUANTILES.length; q++) {
+                        Object value = quantiles.get(q);
+                        values.put("p" + Math.round(QUANTILES[q] * 100),
+                                value == null ? null : ((Number) value).doubleValue());
+                    }
+                    column.setQuantiles(values);
+                }
+                List<Row> bins = row.getList(row.fieldIndex("histogram" + i));
+                if (bins != null) {
+                    List<List<Double>> histogram = new ArrayList<>();
+                    for (Row bin : bins) histogram.add(List.of(bin.getDouble(0), bin.getDouble(1)));
+                    column.setHistogram(histogram);
+                }
+            }
+            columns.add(column);
+        }
+        DatasetProfile profile = new DatasetProfile();
+        profile.setRowCount(rows);
+        profile.setColumns(columns);
+        return profile;
+    }
+
+    private static Object toJson(Object value) {
+        if (value == null || value instanceof Number || value instanceof Boolean || value instanceof String)
+            return value;
+        return value.toString();
+    }
+}
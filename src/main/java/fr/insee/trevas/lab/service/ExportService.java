@@ -0,0 +1,186 @@
+package fr.insee.trevas.lab.service;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import fr.insee.trevas.lab.model.User;
+import fr.insee.trevas.lab.utils.ParquetRows;
+import fr.insee.vtl.model.Dataset;
+import fr.insee.vtl.spark.SparkDataset;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.spark.sql.Row;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a job result to the HTTP response as CSV or parquet. Spark results are pulled one
+ * partition at a time through a local iterator, so the driver never holds more than a partition
+ * and a slow client slows the pull down.
+ */
+@Service
+public class ExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private SparkEngine sparkEngine;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    public StreamingResponseBody export(User user, Dataset dataset, String format, String compression) {
+        if (!"csv".equals(format) && !"parquet".equals(format))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknow export format: " + format);
+        if (compression != null && !"gzip".equals(compression) && !"zstd".equals(compression))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknow compression: " + compression);
+        return out -> {
+            // Runs on an MVC async thread: the pool has to be set on it
+            if (dataset instanceof SparkDataset) quotaService.usePool(sparkEngine.buildSparkSession(), user);
+            if ("csv".equals(format)) writeCsv(dataset, compress(out, compression));
+            else writeParquet(dataset, out, compression);
+        };
+    }
+
+    public static String fileName(String name, String format, String compression) {
+        if ("parquet".equals(format)) return name + ".parquet";
+        if ("gzip".equals(compression)) return name + ".csv.gz";
+        if ("zstd".equals(compression)) return name + ".csv.zst";
+        return name + ".csv";
+    }
+
+    private static OutputStream compress(OutputStream out, String compression) throws IOException {
+        if ("gzip".equals(compression)) return new GZIPOutputStream(out, BUFFER_SIZE);
+        if ("zstd".equals(compression)) return new ZstdOutputStream(out);
+        return out;
+    }
+
+    private static void writeCsv(Dataset dataset, OutputStream out) throws IOException {
+        List<String> names = new ArrayList<>(dataset.getDataStructure().keySet());
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(String.join(";", names.stream().map(ExportService::escape).toList()));
+            writer.write('\n');
+            Iterator<List<Object>> rows = rows(dataset);
+            while (rows.hasNext()) {
+                List<Object> row = rows.next();
+                for (int i = 0; i < row.size(); i++) {
+                    if (i > 0) writer.write(';');
+                    Object value = normalize(row.get(i));
+                    if (value != null) writer.write(escape(value.toString()));
+                }
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static String escape(String value) {
+        if (value.indexOf(';') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static void writeParquet(Dataset dataset, OutputStream out, String compression) throws IOException {
+        CompressionCodecName codec = "gzip".equals(compression) ? CompressionCodecName.GZIP
+                : "zstd".equals(compression) ? CompressionCodecName.ZSTD
+                : CompressionCodecName.UNCOMPRESSED;
+        ParquetRows.write(new ArrayList<>(dataset.getDataStructure().values()), rows(dataset), new StreamOutputFile(out), codec);
+    }
+
+    private static Object normalize(Object value) {
+        if (value instanceof java.sql.Date date) return date.toLocalDate();
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Iterator<List<Object>> rows(Dataset dataset) {
+        if (!(dataset instanceof SparkDataset sparkDataset)) {
+            Iterator<? extends List<Object>> dataPoints = dataset.getDataPoints().iterator();
+            return (Iterator<List<Object>>) dataPoints;
+        }
+        org.apache.spark.sql.Dataset<Row> sparkDs = sparkDataset.getSparkDataset();
+        int[] indexes = dataset.getDataStructure().keySet().stream().mapToInt(sparkDs.schema()::fieldIndex).toArray();
+        Iterator<Row> rows = sparkDs.toLocalIterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public List<Object> next() {
+                Row row = rows.next();
+                List<Object> values = new ArrayList<>(indexes.length);
+                for (int index : indexes) values.add(row.get(index));
+                return values;
+            }
+        };
+    }
+
+    /**
+     * Parquet files are written sequentially, footer last: a plain stream that counts bytes will do.
+     */
+    private static class StreamOutputFile implements OutputFile {
+
+        private final OutputStream out;
+
+        StreamOutputFile(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public PositionOutputStream create(long blockSizeHint) {
+            return new PositionOutputStream() {
+                private long position;
+
+                @Override
+                public long getPos() {
+                    return position;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    position++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    position += len;
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+
+        @Override
+        public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+            return create(blockSizeHint);
+        }
+
+        @Override
+        public boolean supportsBlockSize() {
+            return false;
+        }
+
+        @Override
+        public long defaultBlockSize() {
+            return 0;
+        }
+    }
+}
@@ -1,24 +1,34 @@
 package fr.insee.trevas.lab.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.dataset.ColumnarDataset;
 import fr.insee.trevas.lab.model.Body;
 import fr.insee.trevas.lab.model.EditVisualize;
+import fr.insee.trevas.lab.model.Job;
 import fr.insee.trevas.lab.model.QueriesForBindings;
+import fr.insee.trevas.lab.model.Span;
 import fr.insee.trevas.lab.model.User;
+import fr.insee.trevas.lab.utils.NamedQuery;
+import fr.insee.trevas.lab.utils.Parameters;
 import fr.insee.trevas.lab.utils.Utils;
 import fr.insee.vtl.jdbc.JDBCDataset;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import javax.script.Bindings;
+import javax.script.SimpleBindings;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -30,10 +40,27 @@ public class InMemoryEngine {
     @Autowired
     private ObjectMapper objectMapper;
 
-    public Bindings executeInMemory(User user, Body body, Boolean preview) throws Exception {
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private ScriptCache scriptCache;
+
+    @Autowired
+    private MemoryManager memoryManager;
+
+    @Value("${app.columnar.off-heap:false}")
+    private boolean offHeap;
+
+    public Bindings executeInMemory(Job job, User user, Body body, Boolean preview) throws Exception {
         String script = body.getVtlScript();
-        Bindings bindings = body.getBindings();
+        Bindings bindings = new SimpleBindings();
+        Bindings inline = job.takeInlineBindings();
+        if (inline != null) bindings.putAll(inline);
         Map<String, QueriesForBindings> queriesForBindings = body.getQueriesForBindings();
+        int maxRows = quotaService.getMaxRows(user);
+        Map<String, Object> parameters = Parameters.normalize(body.getParameters());
+        bindings.putAll(parameters);
 
         if (queriesForBindings != null) {
             queriesForBindings.forEach((k, v) -> {
@@ -52,11 +79,25 @@ public class InMemoryEngine {
                                     v.getUser(),
                                     v.getPassword())
                     ) {
-                        Statement statement = connection.createStatement();
                         String query = preview ? v.getQuery() + " LIMIT 0" : v.getQuery();
-                        return statement.executeQuery(query);
-                    } catch (SQLException se) {
-                        throw new RuntimeException(se);
+                        // Queries are only rewritten when the script has parameters
+                        PreparedStatement statement = parameters.isEmpty()
+                                ? connection.prepareStatement(query)
+                                : NamedQuery.parse(query, v.getDbtype()).prepare(connection, parameters);
+                        // One row past the quota is fetched, to tell a full result from a truncated one
+                        boolean checked = maxRows > 0 && maxRows < Integer.MAX_VALUE;
+                        statement.setMaxRows(checked ? maxRows + 1 : maxRows);
+                        job.onCancel(() -> {
+                            try {
+                                statement.cancel();
+                            } catch (SQLException e) {
+                                logger.warn("Statement cancellation failed: ", e);
+                            }
+                        });
+                        ResultSet resultSet = statement.executeQuery();
+                        return checked ? withRowQuota(resultSet, maxRows) : resultSet;
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
                     }
                 });
                 bindings.put(k, jdbcDataset);
@@ -66,10 +107,13 @@ public class InMemoryEngine {
         ScriptEngine engine = Utils.initEngine(bindings);
 
         try {
-            engine.eval(script);
+            try (Span span = job.profile.span("eval")) {
+                scriptCache.eval(engine, script);
+            }
             Bindings outputBindings = engine.getContext().getBindings(ScriptContext.ENGINE_SCOPE);
-            Bindings output = Utils.getBindings(outputBindings);
-            return output;
+            try (Span span = job.profile.span("materialize")) {
+                return memoryManager.track(job.id, Utils.getBindings(outputBindings));
+            }
         } catch (Exception e) {
             logger.warn("Eval failed: ", e);
             throw new Exception(e);
@@ -80,7 +124,7 @@ public class InMemoryEngine {
             User user,
             QueriesForBindings queriesForBindings) throws SQLException {
         List<Map<String, Object>> structure = new ArrayList<>();
-        List<List<Object>> points = new ArrayList<>();
+        List<List<Object>> points;
         String jdbcPrefix = "";
         try {
             jdbcPrefix = Utils.getJDBCPrefix(queriesForBindings.getDbtype());
@@ -94,21 +138,13 @@ public class InMemoryEngine {
                         queriesForBindings.getPassword())
         ) {
             try (
-                    Statement statement = connection.createStatement();
-                    ResultSet resultSet = statement.executeQuery(queriesForBindings.getQuery())
+                    Statement statement = connection.createStatement()
             ) {
-                ResultSetMetaData rsmd = resultSet.getMetaData();
-                int columnCount = rsmd.getColumnCount();
-
-                // Data
-                while (resultSet.next()) {
-                    List<Object> row = new ArrayList<>();
-                    for (int i = 1; i <= columnCount; i++) {
-                        Object colVal = resultSet.getObject(i);
-                        row.add(colVal);
-                    }
-                    points.add(row);
-                }
+                // A preview: truncated to the quota
+                statement.setMaxRows(quotaService.getMaxRows(user));
+                ResultSet resultSet = statement.executeQuery(queriesForBindings.getQuery());
+                // Rows are only boxed one at a time, while serialized
+                points = Collections.unmodifiableList(ColumnarDataset.of(resultSet, offHeap).getDataPoints());
             } catch (SQLException e) {
                 throw new SQLException("JDBC connection error");
             }
@@ -124,4 +160,23 @@ public class InMemoryEngine {
                 .body(editVisualize);
     }
 
+    /**
+     * Result set failing the job, rather than silently truncating the input, once it goes past the
+     * row quota.
+     */
+    static ResultSet withRowQuota(ResultSet resultSet, int maxRows) {
+        int[] rows = {0};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    try {
+                        Object result = method.invoke(resultSet, args);
+                        if ("next".equals(method.getName()) && Boolean.TRUE.equals(result) && ++rows[0] > maxRows)
+                            throw new SQLException("Quota exceeded: the query returns more than " + maxRows + " rows");
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
 }
@@ -0,0 +1,245 @@
+package fr.insee.trevas.lab.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.model.Body;
+import fr.insee.trevas.lab.model.S3ForBindings;
+import fr.insee.trevas.lab.utils.Fingerprints;
+import fr.insee.trevas.lab.utils.Parameters;
+import fr.insee.vtl.prov.ProvenanceListener;
+import fr.insee.vtl.prov.prov.DataframeInstance;
+import fr.insee.vtl.prov.prov.Program;
+import fr.insee.vtl.prov.prov.ProgramStep;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Incremental execution plan of a script whose persistent datasets are written in {@code writePath}.
+ * <p>
+ * Each assignment of the provenance graph gets a fingerprint built from its source code and the
+ * fingerprints of what it consumes (files listing for S3 inputs). Persistent assignments whose
+ * fingerprint matches the manifest of the previous run are read back from {@code writePath};
+ * only the downstream closure of changed inputs is evaluated. JDBC inputs cannot be fingerprinted
+ * and are always considered changed.
+ * <p>
+ * Scripts with statements outside of the provenance graph (operator or ruleset definitions,
+ * reassignments...) are run in full, as well as those the provenance listener cannot read.
+ */
+public class IncrementalPlan {
+
+    private static final Logger logger = LogManager.getLogger(IncrementalPlan.class);
+
+    static final String MANIFEST = "_incremental.json";
+
+    private final String script;
+    private final Set<String> reused;
+    private final Map<String, String> fingerprints;
+
+    private IncrementalPlan(String script, Set<String> reused, Map<String, String> fingerprints) {
+        this.script = script;
+        this.reused = reused;
+        this.fingerprints = fingerprints;
+    }
+
+    public static IncrementalPlan build(ObjectMapper objectMapper, Configuration conf, Body body) throws Exception {
+        String writePath = body.getWritePath();
+        Map<String, String> inputs = new HashMap<>();
+        if (body.getS3ForBindings() != null) {
+            for (Map.Entry<String, S3ForBindings> entry : body.getS3ForBindings().entrySet()) {
+                inputs.put(entry.getKey(), Fingerprints.of(conf, entry.getValue()));
+            }
+        }
+        String parameters = Parameters.fingerprint(Parameters.normalize(body.getParameters()));
+        Map<String, String> previous = readManifest(objectMapper, conf, writePath);
+
+        Program program;
+        try {
+            program = ProvenanceListener.run(body.getVtlScript(), "incremental", "incremental");
+        } catch (Exception e) {
+            logger.warn("Provenance of the script failed, running it in full: ", e);
+            return full(body.getVtlScript());
+        }
+        Map<String, ProgramStep> steps = new LinkedHashMap<>();
+        for (ProgramStep step : program.getProgramSteps()) {
+            steps.put(step.getProducedDataframe().getLabel(), step);
+        }
+        // Only the steps would be evaluated: anything else would be lost
+        int statements = statements(body.getVtlScript()).size();
+        if (statements != steps.size()) {
+            logger.info("{} statements for {} assignments in the provenance graph, running the script in full",
+                    statements, steps.size());
+            return full(body.getVtlScript());
+        }
+        Map<String, Set<String>> consumed = new HashMap<>();
+        Map<String, Set<String>> consumers = new HashMap<>();
+        steps.forEach((name, step) -> {
+            Set<String> labels = step.getConsumedDataframe().stream()
+                    .map(DataframeInstance::getLabel)
+                    .collect(Collectors.toCollection(TreeSet::new));
+            consumed.put(name, labels);
+            labels.forEach(l -> consumers.computeIfAbsent(l, k -> new HashSet<>()).add(name));
+        });
+        List<String> order = topologicalOrder(steps.keySet(), consumed);
+
+        FileSystem fs = new Path(writePath).getFileSystem(conf);
+        Map<String, String> fingerprints = new HashMap<>();
+        Set<String> reused = new HashSet<>();
+        for (String name : order) {
+            List<String> parts = new ArrayList<>();
+            parts.add(steps.get(name).getSourceCode());
+            // Scalars are not part of the provenance graph: any parameter change invalidates every step
+            parts.add(parameters);
+            boolean known = true;
+            for (String label : consumed.get(name)) {
+                String fingerprint = steps.containsKey(label) ? fingerprints.get(label) : inputs.get(label);
+                if (fingerprint == null) known = false;
+                parts.add(label + "=" + fingerprint);
+            }
+            if (!known) continue;
+            String fingerprint = Fingerprints.hash(parts.toArray(new String[0]));
+            fingerprints.put(name, fingerprint);
+            if (isPersistent(steps.get(name)) && fingerprint.equals(previous.get(name))
+                    && fs.exists(new Path(writePath, name))) {
+                reused.add(name);
+            }
+        }
+
+        // Walk backwards: a step is evaluated when it is not reused and something needs it
+        Set<String> needed = new HashSet<>();
+        List<String> reversed = new ArrayList<>(order);
+        Collections.reverse(reversed);
+        for (String name : reversed) {
+            if (reused.contains(name)) continue;
+            Set<String> next = consumers.getOrDefault(name, Set.of());
+            if (isPersistent(steps.get(name)) || next.isEmpty() || next.stream().anyMatch(needed::contains)) {
+                needed.add(name);
+            }
+        }
+        String script = order.stream()
+                .filter(needed::contains)
+                .map(name -> statement(steps.get(name)))
+                .collect(Collectors.joining("\n"));
+        return new IncrementalPlan(script, reused, fingerprints);
+    }
+
+    private static IncrementalPlan full(String script) {
+        return new IncrementalPlan(script, Set.of(), Map.of());
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    public Set<String> getReused() {
+        return reused;
+    }
+
+    /**
+     * Records the fingerprints of the persistent datasets now present in {@code writePath}.
+     */
+    public void commit(ObjectMapper objectMapper, Configuration conf, String writePath, Set<String> written) throws IOException {
+        Map<String, String> manifest = new TreeMap<>();
+        fingerprints.forEach((name, fingerprint) -> {
+            if (reused.contains(name) || written.contains(name)) manifest.put(name, fingerprint);
+        });
+        Path path = new Path(writePath, MANIFEST);
+        try (FSDataOutputStream out = path.getFileSystem(conf).create(path, true)) {
+            objectMapper.writeValue(out, manifest);
+        }
+    }
+
+    private static Map<String, String> readManifest(ObjectMapper objectMapper, Configuration conf, String writePath) throws IOException {
+        Path path = new Path(writePath, MANIFEST);
+        FileSystem fs = path.getFileSystem(conf);
+        if (!fs.exists(path)) return Map.of();
+        try (FSDataInputStream in = fs.open(path)) {
+            return objectMapper.readValue(in, new TypeReference<Map<String, String>>() {
+            });
+        }
+    }
+
+    private static List<String> topologicalOrder(Set<String> names, Map<String, Set<String>> consumed) throws Exception {
+        List<String> order = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        while (order.size() < names.size()) {
+            boolean progress = false;
+            for (String name : names) {
+                if (done.contains(name)) continue;
+                boolean ready = consumed.get(name).stream().noneMatch(l -> names.contains(l) && !done.contains(l));
+                if (ready) {
+                    order.add(name);
+                    done.add(name);
+                    progress = true;
+                }
+            }
+            if (!progress) throw new Exception("Cyclic dependency between assignments: " + names);
+        }
+        return order;
+    }
+
+    private static boolean isPersistent(ProgramStep step) {
+        return isPersistent(step.getProducedDataframe().getLabel(), step.getSourceCode());
+    }
+
+    static boolean isPersistent(String label, String sourceCode) {
+        List<String> statements = statements(sourceCode);
+        if (statements.size() != 1) return false;
+        String name = "(" + Pattern.quote(label) + "|'" + Pattern.quote(label) + "')";
+        return Pattern.compile("(?s)" + name + "\\s*<-.*").matcher(statements.get(0)).matches();
+    }
+
+    /**
+     * Statements of a script, without their comments nor their terminating semicolon. Semicolons
+     * within string literals, quoted names and comments do not end a statement.
+     */
+    static List<String> statements(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder statement = new StringBuilder();
+        int i = 0;
+        while (i < script.length()) {
+            char c = script.charAt(i);
+            if (c == '/' && script.startsWith("/*", i)) {
+                int end = script.indexOf("*/", i + 2);
+                i = end < 0 ? script.length() : end + 2;
+                statement.append(' ');
+            } else if (c == '/' && script.startsWith("//", i)) {
+                int end = script.indexOf('\n', i);
+                i = end < 0 ? script.length() : end;
+            } else if (c == '"' || c == '\'') {
+                int end = script.indexOf(c, i + 1);
+                end = end < 0 ? script.length() : end + 1;
+                statement.append(script, i, end);
+                i = end;
+            } else if (c == ';') {
+                add(statements, statement);
+                i++;
+            } else {
+                statement.append(c);
+                i++;
+            }
+        }
+        add(statements, statement);
+        return statements;
+    }
+
+    private static void add(List<String> statements, StringBuilder statement) {
+        String trimmed = statement.toString().trim();
+        if (!trimmed.isEmpty()) statements.add(trimmed);
+        statement.setLength(0);
+    }
+
+    private static String statement(ProgramStep step) {
+        String sourceCode = step.getSourceCode().trim();
+        return sourceCode.endsWith(";") ? sourceCode : sourceCode + ";";
+    }
+}
@@ -0,0 +1,85 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.model.JobProfile;
+import fr.insee.trevas.lab.model.Span;
+import fr.insee.trevas.lab.utils.LruCache;
+import org.apache.spark.executor.TaskMetrics;
+import org.apache.spark.scheduler.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adds the Spark stages of each trevas-lab job to its profile, jobs being told apart by their
+ * Spark job group. Task durations give the skew of each stage.
+ */
+public class JobProfileListener extends SparkListener {
+
+    private final LruCache<String, JobProfile> profiles = new LruCache<>(1000);
+    private final Map<Integer, String> stageGroups = new ConcurrentHashMap<>();
+    private final Map<Integer, List<Long>> taskDurations = new ConcurrentHashMap<>();
+
+    public void register(String jobGroup, JobProfile profile) {
+        profiles.put(jobGroup, profile);
+    }
+
+    @Override
+    public void onJobStart(SparkListenerJobStart jobStart) {
+        if (jobStart.properties() == null) return;
+        String group = jobStart.properties().getProperty("spark.jobGroup.id");
+        if (group == null || profiles.get(group) == null) return;
+        scala.collection.Iterator<StageInfo> stages = jobStart.stageInfos().iterator();
+        while (stages.hasNext()) {
+            stageGroups.put(stages.next().stageId(), group);
+        }
+    }
+
+    @Override
+    public void onTaskEnd(SparkListenerTaskEnd taskEnd) {
+        if (!stageGroups.containsKey(taskEnd.stageId())) return;
+        taskDurations.computeIfAbsent(taskEnd.stageId(), k -> Collections.synchronizedList(new ArrayList<>()))
+                .add(taskEnd.taskInfo().duration());
+    }
+
+    @Override
+    public void onStageCompleted(SparkListenerStageCompleted stageCompleted) {
+        StageInfo stage = stageCompleted.stageInfo();
+        String group = stageGroups.remove(stage.stageId());
+        List<Long> durations = taskDurations.remove(stage.stageId());
+        if (group == null) return;
+        JobProfile profile = profiles.get(group);
+        if (profile == null || stage.submissionTime().isEmpty()) return;
+        long submitted = (Long) stage.submissionTime().get();
+        long completed = stage.completionTime().isDefined() ? (Long) stage.completionTime().get() : submitted;
+        Span span = new Span("stage " + stage.stageId() + ": " + stage.name(), "spark", "spark",
+                submitted * 1000, (completed - submitted) * 1000);
+        span.attribute("tasks", stage.numTasks());
+        if (stage.failureReason().isDefined()) span.attribute("failure", stage.failureReason().get());
+        TaskMetrics metrics = stage.taskMetrics();
+        if (metrics != null) {
+            span.attribute("inputBytes", metrics.inputMetrics().bytesRead())
+                    .attribute("outputBytes", metrics.outputMetrics().bytesWritten())
+                    .attribute("shuffleReadBytes", metrics.shuffleReadMetrics().totalBytesRead())
+                    .attribute("shuffleWriteBytes", metrics.shuffleWriteMetrics().bytesWritten())
+                    .attribute("memorySpilledBytes", metrics.memoryBytesSpilled())
+                    .attribute("diskSpilledBytes", metrics.diskBytesSpilled());
+        }
+        if (durations != null && !durations.isEmpty()) {
+            List<Long> sorted;
+            synchronized (durations) {
+                sorted = new ArrayList<>(durations);
+            }
+            Collections.sort(sorted);
+            long median = sorted.get(sorted.size() / 2);
+            long max = sorted.get(sorted.size() - 1);
+            span.attribute("medianTaskMs", median)
+                    .attribute("maxTaskMs", max)
+                    // Slowest task over the median one: well above 1 means skewed partitions
+                    .attribute("skew", median == 0 ? null : (double) max / median);
+        }
+        profile.add(span);
+    }
+}
@@ -0,0 +1,466 @@
+package fr.insee.trevas.lab.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.model.*;
+import fr.insee.trevas.lab.queue.JobQueue;
+import fr.insee.trevas.lab.repository.JobRepository;
+import fr.insee.trevas.lab.utils.Credentials;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.script.Bindings;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the jobs, either directly in this process or, when a {@link JobQueue} is configured,
+ * through a queue shared by the replicas: any replica accepts a job and the replicas with spare
+ * capacity claim and run it. Status lookups then go through the shared {@link JobRepository}.
+ */
+@Service
+public class JobService {
+
+    private static final Logger logger = LogManager.getLogger(JobService.class);
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final Map<UUID, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired(required = false)
+    private JobQueue jobQueue;
+
+    @Autowired
+    private InMemoryEngine inMemoryEngine;
+
+    @Autowired
+    private SparkEngine sparkEngine;
+
+    @Autowired
+    private StreamingEngine streamingEngine;
+
+    @Autowired
+    private MemoryManager memoryManager;
+
+    @Value("${app.jobs.max-runtime-seconds:0}")
+    private long defaultMaxRuntimeSeconds;
+
+    @Value("${app.jobs.trace-dir:}")
+    private String traceDirectory;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.jobs.capacity:4}")
+    private int capacity;
+
+    @Value("${app.jobs.queue.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @Value("${app.instance-id:${HOSTNAME:local}}")
+    private String instanceId;
+
+    @Value("${app.jobs.lease.heartbeat-ms:10000}")
+    private long heartbeatMs;
+
+    @Value("${app.jobs.lease.timeout-ms:60000}")
+    private long leaseTimeoutMs;
+
+    @Value("${app.jobs.retention-minutes:60}")
+    private long retentionMinutes;
+
+    private volatile boolean dispatching;
+
+    @PostConstruct
+    public void start() {
+        jobRepository.failUnfinished(instanceId, "Interrupted by a restart");
+        // Jobs of a replica which died for good (its id is not coming back) are failed by any other
+        scheduler.scheduleWithFixedDelay(() -> jobRepository.heartbeat(instanceId),
+                heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> jobRepository.expireLeases(leaseTimeoutMs, "Owner stopped renewing its lease"),
+                leaseTimeoutMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::evictFinished, 1, 1, TimeUnit.MINUTES);
+        if (jobQueue != null) {
+            dispatching = true;
+            executorService.submit(this::dispatch);
+            scheduler.scheduleWithFixedDelay(this::watchCancelRequests,
+                    pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        dispatching = false;
+        scheduler.shutdown();
+    }
+
+    /**
+     * Jobs of this process come with their bindings, others are read from the store.
+     */
+    public Optional<Job> getJob(UUID id) {
+        return Optional.ofNullable(jobs.get(id)).or(() -> jobRepository.findById(id));
+    }
+
+    public Job submit(User user, Body body, ExecutionMode mode, Boolean preview) {
+        Job job = new Job();
+        job.definition = body;
+        job.mode = mode;
+        job.preview = preview;
+        job.user = user;
+        if (jobQueue != null) {
+            if (!jobRepository.keepsCredentials() && !Credentials.of(body).isEmpty())
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Queued jobs with JDBC passwords need app.jobs.store.secret-key");
+            jobRepository.saveNow(job);
+            jobQueue.enqueue(job.id);
+            return job;
+        }
+        quotaService.acquire(user);
+        // Queued jobs keep their inline datasets in the stored definition, for whichever replica runs them
+        job.detachInlineBindings();
+        return executeJob(job, this::run);
+    }
+
+    /**
+     * Runs the scripts of a batch concurrently in one Spark session, under a parent job whose
+     * children map follows the status of each script. Identical inputs are read once for the whole batch.
+     * <p>
+     * The batch takes one of the job slots of the user and runs on the replica receiving it, even with
+     * a job queue: its scripts share their inputs in this process. At most as many scripts run at once
+     * as the user may run jobs and as the replica may run ({@code app.jobs.capacity}), each of them
+     * counting as an active job of the replica.
+     */
+    public Job submitBatch(User user, BatchBody batch, Boolean preview) {
+        Job parent = new Job();
+        parent.mode = ExecutionMode.SPARK;
+        parent.preview = preview;
+        parent.user = user;
+        parent.children = new ConcurrentHashMap<>();
+        List<Body> bodies = expand(batch);
+        if (bodies.isEmpty()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty batch");
+        Map<UUID, Job> children = new LinkedHashMap<>();
+        for (Body body : bodies) {
+            Job child = new Job();
+            child.definition = body;
+            child.mode = ExecutionMode.SPARK;
+            child.preview = preview;
+            child.user = user;
+            child.parent = parent.id;
+            child.detachInlineBindings();
+            children.put(child.id, child);
+            parent.children.put(child.id, child.status);
+        }
+        parent.onCancel(() -> children.values().forEach(child -> cancel(child, "Batch cancelled")));
+        quotaService.acquire(user);
+        return executeJob(parent, job -> runBatch(job, children.values()));
+    }
+
+    private static List<Body> expand(BatchBody batch) {
+        List<Body> bodies = new ArrayList<>();
+        if (batch.getBodies() != null) bodies.addAll(batch.getBodies());
+        if (batch.getBody() != null && batch.getParameterSets() != null) {
+            for (Map<String, Object> parameterSet : batch.getParameterSets()) {
+                bodies.add(withParameters(batch.getBody(), parameterSet));
+            }
+        }
+        return bodies;
+    }
+
+    private static Body withParameters(Body body, Map<String, Object> parameterSet) {
+        Map<String, Object> parameters = new HashMap<>();
+        if (body.getParameters() != null) parameters.putAll(body.getParameters());
+        parameters.putAll(parameterSet);
+        Body copy = body.copy();
+        copy.setParameters(parameters);
+        return copy;
+    }
+
+    private Bindings runBatch(Job parent, Collection<Job> children) throws Exception {
+        SharedInputs sharedInputs = new SharedInputs();
+        Semaphore slots = new Semaphore(Math.max(1, Math.min(quotaService.getMaxConcurrentJobs(parent.user), capacity)));
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            try {
+                for (Job child : children) {
+                    child.owner = instanceId;
+                    jobs.put(child.id, child);
+                    jobRepository.save(child);
+                }
+                for (Job child : children) {
+                    slots.acquire();
+                    active.incrementAndGet();
+                    // Released once, by the task or, when the child is cancelled before starting, by the cancellation
+                    AtomicBoolean started = new AtomicBoolean();
+                    Runnable release = () -> {
+                        active.decrementAndGet();
+                        slots.release();
+                    };
+                    child.onCancel(() -> {
+                        if (started.compareAndSet(false, true)) release.run();
+                    });
+                    child.future = executorService.submit(() -> {
+                        if (!started.compareAndSet(false, true)) return;
+                        try {
+                            runJob(child, job -> sparkEngine.executeSpark(job, job.user, job.definition, job.preview, sharedInputs));
+                            parent.children.put(child.id, child.status);
+                            jobRepository.save(parent);
+                        } finally {
+                            release.run();
+                        }
+                    });
+                    futures.add(child.future);
+                }
+            } finally {
+                // Also when the batch is cancelled while waiting for a slot: submitted scripts use the shared inputs
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (CancellationException ignored) {
+                        // The child status already says so
+                    }
+                }
+            }
+        } finally {
+            sharedInputs.release();
+            children.forEach(Job::releaseInlineBindings);
+        }
+        children.forEach(child -> parent.children.put(child.id, child.status));
+        long failed = children.stream().filter(child -> child.status != Status.DONE).count();
+        if (failed > 0) throw new Exception(failed + " of " + children.size() + " scripts did not succeed");
+        return null;
+    }
+
+    // TODO: Refactor to use the ScriptEngine inside the user session.
+    Job executeJob(Job job, VtlJob execution) {
+        Body body = job.definition;
+        job.owner = instanceId;
+        jobs.put(job.id, job);
+        jobRepository.save(job);
+        active.incrementAndGet();
+        long maxRuntimeSeconds = body != null && body.getMaxRuntimeSeconds() != null
+                ? body.getMaxRuntimeSeconds()
+                : defaultMaxRuntimeSeconds;
+        ScheduledFuture<?> timeout = maxRuntimeSeconds <= 0 ? null : scheduler.schedule(
+                () -> cancel(job, "Job exceeded its max runtime of " + maxRuntimeSeconds + "s"),
+                maxRuntimeSeconds, TimeUnit.SECONDS);
+        // Released once, by the task or, when it is cancelled before starting, by the cancellation
+        AtomicBoolean started = new AtomicBoolean();
+        Runnable release = () -> {
+            if (timeout != null) timeout.cancel(false);
+            job.releaseInlineBindings();
+            // Results of a failed or cancelled job are never read
+            if (job.status != Status.DONE) releaseResults(job);
+            quotaService.release(job.user);
+            active.decrementAndGet();
+        };
+        job.onCancel(() -> {
+            if (started.compareAndSet(false, true)) release.run();
+        });
+        job.future = executorService.submit(() -> {
+            if (!started.compareAndSet(false, true)) return;
+            try {
+                runJob(job, execution);
+            } finally {
+                release.run();
+            }
+        });
+        return job;
+    }
+
+    private void runJob(Job job, VtlJob execution) {
+        Body body = job.definition;
+        try {
+            if (body != null && body.getToSave() != null) {
+                Map<String, S3ForBindings> s3ToSave = body.getToSave().getS3ForBindings();
+                if (s3ToSave != null) {
+                    s3ToSave.forEach((k, v) -> {
+                        var output = new Output();
+                        output.location = k;
+                        job.outputs.put(k, output);
+                    });
+                }
+                Map<String, QueriesForBindingsToSave> jdbcToSave = body.getToSave().getJdbcForBindingsToSave();
+                if (jdbcToSave != null) {
+                    jdbcToSave.forEach((k, v) -> {
+                        var output = new Output();
+                        output.location = k;
+                        job.outputs.put(k, output);
+                    });
+                }
+            }
+            if (!job.transition(Status.RUNNING)) return;
+            jobRepository.save(job);
+            try (Span span = job.profile.span("job")) {
+                job.bindings = execution.execute(job);
+            }
+            // Outputs are marked by the engines as they get written
+            job.transition(Status.DONE);
+        } catch (Exception e) {
+            if (job.transition(Status.FAILED)) job.error = ErrorSummary.of(e);
+        } finally {
+            jobRepository.save(job);
+            writeTrace(job);
+        }
+    }
+
+    /**
+     * Exports the profile of a finished job as a Chrome trace, when a trace directory is configured.
+     */
+    private void writeTrace(Job job) {
+        if (traceDirectory.isEmpty()) return;
+        try {
+            Path directory = Files.createDirectories(Path.of(traceDirectory));
+            objectMapper.writeValue(directory.resolve(job.id + ".trace.json").toFile(), job.profile.toTraceEvents(job.id));
+        } catch (Exception e) {
+            logger.warn("Could not write the trace of job {}: ", job.id, e);
+        }
+    }
+
+    private Bindings run(Job job) throws Exception {
+        try {
+            if (job.mode == ExecutionMode.MEMORY)
+                return inMemoryEngine.executeInMemory(job, job.user, job.definition, job.preview);
+            if (job.mode == ExecutionMode.SPARK)
+                return sparkEngine.executeSpark(job, job.user, job.definition, job.preview);
+            if (job.mode == ExecutionMode.STREAMING)
+                return streamingEngine.executeStreaming(job, job.user, job.definition);
+        } catch (Exception e) {
+            logger.warn("Job {} failed: ", job.id, e);
+            throw e;
+        }
+        throw new Exception("Unknow mode:" + job.mode);
+    }
+
+    public boolean cancel(UUID id, String reason) {
+        Job local = jobs.get(id);
+        if (local != null) return cancel(local, reason);
+        Optional<Job> stored = jobRepository.findById(id);
+        if (stored.isEmpty()) return false;
+        // Either still queued, or running on another replica which watches the request
+        jobRepository.requestCancel(id);
+        Job job = stored.get();
+        if (job.status == Status.READY && job.transition(Status.CANCELLED)) {
+            job.error = ErrorSummary.of(new CancellationException(reason));
+            jobRepository.save(job);
+        }
+        return true;
+    }
+
+    /**
+     * Stops a job: its Spark job group and JDBC statements are cancelled and its thread interrupted,
+     * so that the cluster capacity is freed right away.
+     */
+    public boolean cancel(Job job, String reason) {
+        if (!job.transition(Status.CANCELLED)) return false;
+        job.error = ErrorSummary.of(new CancellationException(reason));
+        jobRepository.save(job);
+        for (Runnable hook : job.cancelHooks) {
+            try {
+                hook.run();
+            } catch (Exception e) {
+                logger.warn("Cancellation hook of job {} failed: ", job.id, e);
+            }
+        }
+        if (job.future != null) job.future.cancel(true);
+        logger.info("Job {} cancelled: {}", job.id, reason);
+        return true;
+    }
+
+    private void dispatch() {
+        while (dispatching) {
+            try {
+                if (active.get() >= capacity) {
+                    Thread.sleep(pollIntervalMs);
+                    continue;
+                }
+                Optional<UUID> claimed = jobQueue.claim(pollIntervalMs);
+                if (claimed.isEmpty()) continue;
+                Optional<Job> stored = jobRepository.findById(claimed.get());
+                if (stored.isEmpty()) {
+                    logger.warn("Claimed job {} is not in the job store", claimed.get());
+                    jobQueue.ack(claimed.get());
+                    continue;
+                }
+                Job job = stored.get();
+                if (job.status != Status.READY) {
+                    jobQueue.ack(job.id);
+                    continue;
+                }
+                // Quotas are enforced by the replica running the job: over quota, the job waits in the queue
+                if (!quotaService.tryAcquire(job.user)) {
+                    jobQueue.release(job.id);
+                    Thread.sleep(pollIntervalMs);
+                    continue;
+                }
+                // Owned, hence under lease, before it leaves the queue
+                job.owner = instanceId;
+                jobRepository.saveNow(job);
+                jobQueue.ack(job.id);
+                executeJob(job, this::run);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.warn("Job dispatch failed: ", e);
+            }
+        }
+    }
+
+    /**
+     * Drops the jobs finished for longer than the retention, with what their results hold in this
+     * process and on the cluster. The job store keeps their status as long as it keeps statuses.
+     */
+    void evictFinished() {
+        long expiry = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        jobs.values().removeIf(job -> {
+            if (!job.isFinished() || job.finishedAt >= expiry) return false;
+            releaseResults(job);
+            return true;
+        });
+        jobRepository.evictFinished(expiry);
+    }
+
+    private void releaseResults(Job job) {
+        try {
+            memoryManager.untrack(job.id);
+            sparkEngine.release(job);
+        } catch (Exception e) {
+            logger.warn("Results of job {} not released: ", job.id, e);
+        }
+        job.bindings = null;
+    }
+
+    private void watchCancelRequests() {
+        List<UUID> unfinished = jobs.values().stream()
+                .filter(job -> job.status == Status.RUNNING || job.status == Status.READY)
+                .map(job -> job.id)
+                .toList();
+        if (unfinished.isEmpty()) return;
+        jobRepository.cancelRequested(unfinished).forEach(id -> {
+            Job job = jobs.get(id);
+            if (job != null) cancel(job, "Cancelled by user");
+        });
+    }
+
+    @FunctionalInterface
+    public interface VtlJob {
+        Bindings execute(Job job) throws Exception;
+    }
+}
@@ -0,0 +1,139 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.dataset.ColumnarDataset;
+import fr.insee.vtl.model.Dataset;
+import fr.insee.vtl.model.PersistentDataset;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Accounts the in-memory results kept by the jobs. Past the global budget, the oldest results are
+ * spilled to local files and memory-mapped back; a job whose results exceed the per-job limit fails.
+ * <p>
+ * Spill files are not compressed: rows are read in place from the mapping, which needs fixed-width
+ * values. Strings are dictionary-encoded though, so their files only hold the codes.
+ */
+@Component
+public class MemoryManager {
+
+    private static final Logger logger = LogManager.getLogger(MemoryManager.class);
+
+    private final long budgetBytes;
+    private final long jobLimitBytes;
+    private final Path spillDirectory;
+    private final boolean offHeap;
+
+    // Oldest results first
+    private final Map<UUID, List<ColumnarDataset>> datasets = new LinkedHashMap<>();
+    private long residentBytes;
+
+    public MemoryManager(@Value("${app.memory.budget-bytes:0}") long budgetBytes,
+                         @Value("${app.memory.job-limit-bytes:0}") long jobLimitBytes,
+                         @Value("${app.memory.spill-dir:${java.io.tmpdir}/trevas-lab-spill}") String spillDirectory,
+                         @Value("${app.columnar.off-heap:false}") boolean offHeap) {
+        // Defaults to half of the heap
+        this.budgetBytes = budgetBytes > 0 ? budgetBytes : Runtime.getRuntime().maxMemory() / 2;
+        this.jobLimitBytes = jobLimitBytes;
+        this.spillDirectory = Path.of(spillDirectory);
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Stores the datasets of the job results column by column and accounts for them. The copies
+     * stop as soon as the job exceeds its limit.
+     */
+    public Bindings track(UUID jobId, Bindings input) throws Exception {
+        Bindings output = new SimpleBindings();
+        List<ColumnarDataset> tracked = new ArrayList<>();
+        long jobBytes = 0;
+        try {
+            for (Map.Entry<String, Object> entry : input.entrySet()) {
+                Object value = entry.getValue();
+                // What is left of the job limit
+                long maxBytes = jobLimitBytes > 0 ? Math.max(1, jobLimitBytes - jobBytes) : 0;
+                ColumnarDataset dataset = null;
+                if (value instanceof PersistentDataset persistent) {
+                    dataset = ColumnarDataset.of(persistent.getDelegate(), offHeap, maxBytes);
+                    output.put(entry.getKey(), new PersistentDataset(dataset));
+                } else if (value instanceof Dataset plain) {
+                    dataset = ColumnarDataset.of(plain, offHeap, maxBytes);
+                    output.put(entry.getKey(), dataset);
+                } else output.put(entry.getKey(), value);
+                if (dataset == null) continue;
+                tracked.add(dataset);
+                jobBytes += dataset.residentBytes();
+                if (jobLimitBytes > 0 && jobBytes > jobLimitBytes) throw limitExceeded();
+            }
+        } catch (ColumnarDataset.LimitExceededException e) {
+            tracked.forEach(ColumnarDataset::release);
+            throw limitExceeded();
+        } catch (Exception e) {
+            tracked.forEach(ColumnarDataset::release);
+            throw e;
+        }
+        synchronized (this) {
+            datasets.put(jobId, tracked);
+            residentBytes += jobBytes;
+            if (residentBytes > budgetBytes) spill();
+        }
+        return output;
+    }
+
+    private Exception limitExceeded() {
+        return new Exception("Job results exceed the memory limit of " + jobLimitBytes + " bytes");
+    }
+
+    /**
+     * Stops accounting for the results of a job, which must no longer be read, and deletes their files.
+     */
+    public void untrack(UUID jobId) {
+        List<ColumnarDataset> jobDatasets;
+        synchronized (this) {
+            jobDatasets = datasets.remove(jobId);
+            if (jobDatasets == null) return;
+            for (ColumnarDataset dataset : jobDatasets) residentBytes -= dataset.residentBytes();
+        }
+        jobDatasets.forEach(ColumnarDataset::release);
+    }
+
+    private void spill() {
+        try {
+            Files.createDirectories(spillDirectory);
+        } catch (IOException e) {
+            logger.warn("Cannot create spill directory {}: ", spillDirectory, e);
+            return;
+        }
+        for (Map.Entry<UUID, List<ColumnarDataset>> entry : datasets.entrySet()) {
+            List<ColumnarDataset> jobDatasets = entry.getValue();
+            for (int i = 0; i < jobDatasets.size() && residentBytes > budgetBytes; i++) {
+                ColumnarDataset dataset = jobDatasets.get(i);
+                long before = dataset.residentBytes();
+                try {
+                    dataset.spill(spillDirectory.resolve(entry.getKey() + "-" + i + ".col"));
+                } catch (IOException e) {
+                    logger.warn("Spilling results of job {} failed: ", entry.getKey(), e);
+                    return;
+                }
+                residentBytes -= before - dataset.residentBytes();
+                logger.info("Spilled {} bytes of job {}", before - dataset.residentBytes(), entry.getKey());
+            }
+            if (residentBytes <= budgetBytes) return;
+        }
+    }
+
+    @PreDestroy
+    public void cleanUp() throws IOException {
+        FileSystemUtils.deleteRecursively(spillDirectory);
+    }
+}
@@ -0,0 +1,97 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.model.BodyProvenance;
+import fr.insee.trevas.lab.model.S3ForBindings;
+import fr.insee.trevas.lab.utils.Fingerprints;
+import fr.insee.trevas.lab.utils.LruCache;
+import fr.insee.trevas.lab.utils.Utils;
+import fr.insee.vtl.model.DataPoint;
+import fr.insee.vtl.model.InMemoryDataset;
+import fr.insee.vtl.model.Structured;
+import fr.insee.vtl.prov.ProvenanceListener;
+import fr.insee.vtl.prov.prov.Program;
+import fr.insee.vtl.prov.utils.RDFUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.SimpleBindings;
+import java.util.*;
+
+/**
+ * Provenance is computed with the in-memory engine over empty datasets carrying the structures
+ * recorded in the {@link SchemaCache}: no Spark session is needed, no data is loaded and no file
+ * is listed.
+ */
+@Service
+public class ProvenanceService {
+
+    private static final Logger logger = LogManager.getLogger(ProvenanceService.class);
+
+    @Autowired
+    private SchemaCache schemaCache;
+
+    private final LruCache<String, String> jsonLd;
+
+    public ProvenanceService(@Value("${app.provenance.cache-size:200}") int cacheSize) {
+        this.jsonLd = new LruCache<>(cacheSize);
+    }
+
+    public String getJsonLd(BodyProvenance body) throws Exception {
+        Resolved resolved = resolve(body);
+        String cached = jsonLd.get(resolved.key);
+        if (cached != null) return cached;
+        String serialized = RDFUtils.serialize(RDFUtils.buildModel(getProgram(body, resolved)), "JSON-LD");
+        // A degraded program (unknown structures) must not hide the complete one later on
+        if (resolved.complete) jsonLd.put(resolved.key, serialized);
+        return serialized;
+    }
+
+    public Model getModel(BodyProvenance body) throws Exception {
+        return RDFUtils.buildModel(getProgram(body, resolve(body)));
+    }
+
+    private Program getProgram(BodyProvenance body, Resolved resolved) {
+        ScriptEngine engine = Utils.initEngine(resolved.bindings);
+        try {
+            return ProvenanceListener.runWithBindings(engine, body.getScript(), body.getId(), body.getName());
+        } catch (Exception e) {
+            logger.warn("Provenance with bindings failed, computing it without structures: ", e);
+            return ProvenanceListener.run(body.getScript(), body.getId(), body.getName());
+        }
+    }
+
+    private Resolved resolve(BodyProvenance body) {
+        Bindings bindings = new SimpleBindings();
+        List<String> parts = new ArrayList<>(List.of(
+                String.valueOf(body.getScript()), String.valueOf(body.getId()), String.valueOf(body.getName())));
+        boolean complete = true;
+        Map<String, S3ForBindings> s3ForBindings = body.getBindings() == null
+                ? Map.of()
+                : new TreeMap<>(body.getBindings());
+        for (Map.Entry<String, S3ForBindings> entry : s3ForBindings.entrySet()) {
+            Structured.DataStructure structure = schemaCache.get(Fingerprints.ofDefinition(entry.getValue()));
+            if (structure == null) {
+                logger.info("No cached structure for binding {}, it has to be loaded once in SPARK mode", entry.getKey());
+                parts.add(entry.getKey());
+                complete = false;
+                continue;
+            }
+            // Keyed by structure: the program only changes when the loaded structure does
+            StringJoiner components = new StringJoiner(",", entry.getKey() + "=", "");
+            structure.values().forEach(component -> components.add(
+                    component.getName() + ":" + component.getType().getName() + ":" + component.getRole()));
+            parts.add(components.toString());
+            bindings.put(entry.getKey(), new InMemoryDataset(new ArrayList<DataPoint>(), structure));
+        }
+        return new Resolved(Fingerprints.hash(parts.toArray(new String[0])), bindings, complete);
+    }
+
+    private record Resolved(String key, Bindings bindings, boolean complete) {
+    }
+}
@@ -0,0 +1,155 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.configuration.QuotaProperties;
+import fr.insee.trevas.lab.model.QuotaUsage;
+import fr.insee.trevas.lab.model.User;
+import fr.insee.trevas.lab.repository.JobRepository;
+import org.apache.spark.SparkConf;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-user (or per-group) quotas and Spark fair-scheduler pools.
+ * <p>
+ * Concurrent jobs are counted across replicas sharing a job store: the jobs of this process, plus
+ * those the store says run elsewhere. Two replicas admitting a job at the same instant may still
+ * both get the last slot.
+ * <p>
+ * Executor cores are not capped per pool, the fair scheduler having no such ceiling: they are
+ * shared between the running pools according to the {@code weight} and {@code minShare} configured
+ * in {@code app.quotas.pools}, which {@link QuotaUsage} reports.
+ */
+@Service
+public class QuotaService {
+
+    public static final String DEFAULT_POOL = "default";
+
+    @Autowired
+    private QuotaProperties properties;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Value("${app.instance-id:${HOSTNAME:local}}")
+    private String instanceId;
+
+    private final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+
+    private String allocationFile;
+
+    public String getPool(User user) {
+        if ("group".equals(properties.getPoolBy())
+                && user.getGroups() != null && !user.getGroups().isEmpty()) {
+            return "group:" + user.getGroups().get(0);
+        }
+        if (user.getId() != null) return "user:" + user.getId();
+        return DEFAULT_POOL;
+    }
+
+    public void acquire(User user) {
+        if (!tryAcquire(user)) {
+            String pool = getPool(user);
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Quota of " + getMaxConcurrentJobs(pool) + " concurrent jobs reached for " + pool);
+        }
+    }
+
+    public boolean tryAcquire(User user) {
+        String pool = getPool(user);
+        AtomicInteger count = running.computeIfAbsent(pool, k -> new AtomicInteger());
+        if (count.incrementAndGet() + runningElsewhere(pool) > getMaxConcurrentJobs(pool)) {
+            count.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void release(User user) {
+        AtomicInteger count = running.get(getPool(user));
+        if (count != null) count.decrementAndGet();
+    }
+
+    public int getMaxRows(User user) {
+        QuotaProperties.Pool pool = properties.getPools().get(getPool(user));
+        if (pool != null && pool.getMaxRows() != null) return pool.getMaxRows();
+        return properties.getMaxRows();
+    }
+
+    public int capRows(User user, int rows) {
+        return Math.min(rows, getMaxRows(user));
+    }
+
+    /**
+     * Runs the next Spark actions of the current thread in the pool of the user.
+     */
+    public void usePool(SparkSession spark, User user) {
+        spark.sparkContext().setLocalProperty("spark.scheduler.pool", getPool(user));
+    }
+
+    public QuotaUsage getUsage(User user) {
+        String pool = getPool(user);
+        QuotaUsage usage = new QuotaUsage();
+        usage.setPool(pool);
+        AtomicInteger count = running.get(pool);
+        usage.setRunningJobs((count == null ? 0 : count.get()) + runningElsewhere(pool));
+        usage.setMaxConcurrentJobs(getMaxConcurrentJobs(pool));
+        usage.setMaxRows(getMaxRows(user));
+        QuotaProperties.Pool config = properties.getPools().get(pool);
+        // Pools created on the fly get the defaults of the fair scheduler
+        usage.setWeight(config == null ? 1 : config.getWeight());
+        usage.setMinShare(config == null ? 0 : config.getMinShare());
+        return usage;
+    }
+
+    private int runningElsewhere(String pool) {
+        return (int) jobRepository.runningElsewhere(instanceId).stream()
+                .filter(user -> user != null && pool.equals(getPool(user)))
+                .count();
+    }
+
+    /**
+     * Switches Spark to the fair scheduler, with the pools of {@code app.quotas.pools}.
+     * Pools of users that are not configured are created on the fly with default settings.
+     */
+    public synchronized void configureScheduler(SparkConf conf) throws IOException {
+        if (allocationFile == null) allocationFile = writeAllocationFile();
+        conf.set("spark.scheduler.mode", "FAIR");
+        conf.set("spark.scheduler.allocation.file", allocationFile);
+    }
+
+    private String writeAllocationFile() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<allocations>\n");
+        properties.getPools().forEach((name, pool) -> xml
+                .append("  <pool name=\"").append(name).append("\">\n")
+                .append("    <schedulingMode>FAIR</schedulingMode>\n")
+                .append("    <weight>").append(pool.getWeight()).append("</weight>\n")
+                .append("    <minShare>").append(pool.getMinShare()).append("</minShare>\n")
+                .append("  </pool>\n"));
+        xml.append("</allocations>\n");
+        Path file = Files.createTempFile("trevas-lab-fairscheduler", ".xml");
+        Files.writeString(file, xml);
+        file.toFile().deleteOnExit();
+        return file.toUri().toString();
+    }
+
+    public int getMaxConcurrentJobs(User user) {
+        return getMaxConcurrentJobs(getPool(user));
+    }
+
+    private int getMaxConcurrentJobs(String pool) {
+        QuotaProperties.Pool config = properties.getPools().get(pool);
+        if (config != null && config.getMaxConcurrentJobs() != null) return config.getMaxConcurrentJobs();
+        return properties.getMaxConcurrentJobs();
+    }
+}
@@ -0,0 +1,29 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.utils.LruCache;
+import fr.insee.vtl.model.Structured;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Structures of the S3 bindings already loaded by Spark, as of their last load, indexed by binding
+ * definition (see {@link fr.insee.trevas.lab.utils.Fingerprints#ofDefinition(fr.insee.trevas.lab.model.S3ForBindings)}).
+ * Loads do not list the files: the structure comes with the Spark dataset.
+ */
+@Component
+public class SchemaCache {
+
+    private final LruCache<String, Structured.DataStructure> structures;
+
+    public SchemaCache(@Value("${app.schema-cache.size:1000}") int size) {
+        this.structures = new LruCache<>(size);
+    }
+
+    public Structured.DataStructure get(String definition) {
+        return structures.get(definition);
+    }
+
+    public void put(String definition, Structured.DataStructure structure) {
+        structures.put(definition, structure);
+    }
+}
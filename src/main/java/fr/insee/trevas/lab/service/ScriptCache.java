@@ -0,0 +1,53 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.utils.LruCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Scripts compiled once and evaluated many times, with other bindings and parameters, when the engine
+ * supports {@link Compilable}. Otherwise (Trevas engines so far) scripts are evaluated as is and the cache
+ * stays empty.
+ * <p>
+ * Scripts are compiled by an engine of their own, which never sees the bindings of a job, and a compiled
+ * script is only evaluated by one job at a time: concurrent jobs running the same script each get their
+ * own instance, returned to the pool once evaluated.
+ */
+@Component
+public class ScriptCache {
+
+    private final LruCache<String, Queue<CompiledScript>> scripts;
+
+    public ScriptCache(@Value("${app.script-cache.size:500}") int size) {
+        this.scripts = new LruCache<>(size);
+    }
+
+    public Object eval(ScriptEngine engine, String script) throws ScriptException {
+        if (!(engine instanceof Compilable)) return engine.eval(script);
+        Queue<CompiledScript> pool;
+        synchronized (scripts) {
+            pool = scripts.get(script);
+            if (pool == null) {
+                pool = new ConcurrentLinkedQueue<>();
+                scripts.put(script, pool);
+            }
+        }
+        CompiledScript compiled = pool.poll();
+        if (compiled == null) compiled = ((Compilable) newEngine()).compile(script);
+        Object result = compiled.eval(engine.getContext());
+        pool.offer(compiled);
+        return result;
+    }
+
+    private ScriptEngine newEngine() {
+        return new ScriptEngineManager().getEngineByName("vtl");
+    }
+}
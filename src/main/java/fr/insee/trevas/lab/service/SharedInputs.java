@@ -0,0 +1,51 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.model.QueriesForBindings;
+import fr.insee.trevas.lab.model.S3ForBindings;
+import fr.insee.trevas.lab.utils.Fingerprints;
+import fr.insee.vtl.spark.SparkDataset;
+import org.apache.spark.storage.StorageLevel;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inputs of a batch: identical bindings of several scripts are loaded once and cached on the executors.
+ */
+public class SharedInputs {
+
+    private final Map<String, SparkDataset> datasets = new ConcurrentHashMap<>();
+
+    public SparkDataset get(String key, Callable<SparkDataset> loader) throws Exception {
+        try {
+            return datasets.computeIfAbsent(key, k -> {
+                try {
+                    return new SparkDataset(loader.call().getSparkDataset().persist(StorageLevel.MEMORY_AND_DISK()));
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    public void release() {
+        datasets.values().forEach(dataset -> dataset.getSparkDataset().unpersist());
+        datasets.clear();
+    }
+
+    public static String key(S3ForBindings s3, Integer limit) {
+        String options = s3.getOptions() == null ? "" : new TreeMap<>(s3.getOptions()).toString();
+        return Fingerprints.hash("s3", s3.getUrl(), s3.getFiletype(), options, s3.getSchema(), String.valueOf(limit));
+    }
+
+    public static String key(QueriesForBindings queries, String query, Integer limit) {
+        return Fingerprints.hash("jdbc", queries.getDbtype(), queries.getUrl(), queries.getUser(),
+                query, String.valueOf(limit));
+    }
+}
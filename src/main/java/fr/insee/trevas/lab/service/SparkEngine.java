@@ -1,18 +1,29 @@
 package fr.insee.trevas.lab.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.configuration.TuningProperties;
+import fr.insee.trevas.lab.dataset.ColumnarDataset;
 import fr.insee.trevas.lab.model.*;
+import fr.insee.trevas.lab.service.reader.S3DatasetReaders;
+import fr.insee.trevas.lab.utils.Fingerprints;
+import fr.insee.trevas.lab.utils.LruCache;
+import fr.insee.trevas.lab.utils.NamedQuery;
+import fr.insee.trevas.lab.utils.Parameters;
 import fr.insee.trevas.lab.utils.Utils;
 import fr.insee.vtl.model.PersistentDataset;
 import fr.insee.vtl.model.Structured;
-import fr.insee.vtl.prov.ProvenanceListener;
-import fr.insee.vtl.prov.prov.Program;
 import fr.insee.vtl.spark.SparkDataset;
+import jakarta.annotation.PostConstruct;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.spark.SparkConf;
+import org.apache.spark.SparkContext;
 import org.apache.spark.sql.*;
+import org.apache.spark.sql.types.StructField;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -22,10 +33,8 @@ import javax.script.Bindings;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.SimpleBindings;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.util.*;
 
 @Service
 @ConfigurationProperties(prefix = "spark")
@@ -36,6 +45,61 @@ public class SparkEngine {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private S3DatasetReaders s3DatasetReaders;
+
+    @Autowired
+    private SchemaCache schemaCache;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private ScriptCache scriptCache;
+
+    @Autowired
+    private TuningService tuningService;
+
+    @Autowired
+    private TuningProperties tuningProperties;
+
+    private LruCache<Map<String, String>, SparkSession> tunedSessions;
+
+    private final JobProfileListener jobProfileListener = new JobProfileListener();
+
+    private SparkContext profiledContext;
+
+    private final CommitListener commitListener = new CommitListener();
+
+    private SparkSession listenedSession;
+
+    @Value("${app.committer.enabled:true}")
+    private boolean committersEnabled;
+
+    @Value("${app.committer.name:magic}")
+    private String committerName;
+
+    @Value("${app.columnar.off-heap:false}")
+    private boolean offHeap;
+
+    @Value("${app.broadcast.max-rows:100000}")
+    private long broadcastMaxRows;
+
+    @Value("${app.materialization.policy:COLLECT}")
+    private MaterializationPolicy defaultPolicy;
+
+    @Value("${app.materialization.storage-level:MEMORY_AND_DISK}")
+    private String defaultStorageLevel;
+
+    /**
+     * Rows collected by default, up to the row quota when unset.
+     */
+    @Value("${app.materialization.rows:#{null}}")
+    private Integer defaultRows;
+
+    @Value("${app.materialization.scratch-path:/tmp/trevas-lab-scratch}")
+    private String scratchPath;
+
     public SparkSession buildSparkSession() {
         SparkConf conf = Utils.loadSparkConfig(System.getenv("SPARK_CONF_DIR"));
         conf.set("spark.driver.allowMultipleContexts", "true");
@@ -46,41 +110,104 @@ public class SparkEngine {
                 "./lib/vtl-model.jar",
                 "./lib/vtl-parser.jar",
                 "./lib/vtl-engine.jar",
-                "./lib/vtl-jackson.jar"
+                "./lib/vtl-jackson.jar",
+                "./lib/spark-avro.jar",
+                "./lib/spark-hadoop-cloud.jar"
         ));
         SparkSession.Builder sparkBuilder = SparkSession.builder()
                 .appName("trevas-lab");
         if (!conf.contains("spark.master")) {
             conf.set("spark.master", "local");
         }
+        if (committersEnabled) {
+            // S3A committers: no rename-by-copy of the files at job commit on s3a:// outputs
+            conf.setIfMissing("spark.hadoop.mapreduce.outputcommitter.factory.scheme.s3a",
+                    "org.apache.hadoop.fs.s3a.commit.S3ACommitterFactory");
+            conf.setIfMissing("spark.hadoop.fs.s3a.committer.name", committerName);
+            String committer = conf.get("spark.hadoop.fs.s3a.committer.name");
+            if (Utils.isStagingCommitter(committer) && !Utils.stagingIsShared(conf.get("spark.master"),
+                    conf.get("spark.hadoop.fs.s3a.committer.staging.tmp.path", null),
+                    conf.get("spark.hadoop.fs.defaultFS", null))) {
+                logger.warn("Committer {} needs fs.s3a.committer.staging.tmp.path on a shared filesystem, using magic", committer);
+                conf.set("spark.hadoop.fs.s3a.committer.name", "magic");
+                committerName = "magic";
+            }
+            conf.setIfMissing("spark.hadoop.fs.s3a.committer.magic.enabled", "true");
+            conf.setIfMissing("spark.sql.sources.commitProtocolClass",
+                    "org.apache.spark.internal.io.cloud.PathOutputCommitProtocol");
+            conf.setIfMissing("spark.sql.parquet.output.committer.class",
+                    "org.apache.spark.internal.io.cloud.BindingParquetOutputCommitter");
+        }
+        try {
+            quotaService.configureScheduler(conf);
+        } catch (IOException e) {
+            logger.warn("Fair scheduler pools not configured: ", e);
+        }
         sparkBuilder.config(conf);
-        return sparkBuilder.getOrCreate();
+        SparkSession spark = sparkBuilder.getOrCreate();
+        synchronized (this) {
+            if (profiledContext != spark.sparkContext()) {
+                spark.sparkContext().addSparkListener(jobProfileListener);
+                profiledContext = spark.sparkContext();
+            }
+            // Execution listeners belong to a session
+            if (listenedSession != spark) {
+                spark.listenerManager().register(commitListener);
+                listenedSession = spark;
+            }
+        }
+        return spark;
+    }
+
+    /**
+     * Session of a job: the shared one, or a child session holding the SQL settings of its tuning.
+     * Child sessions share the SparkContext and the cache, keep their settings away from concurrent
+     * jobs, and are reused by the jobs resolving to the same settings.
+     */
+    SparkSession tunedSession(SparkSession spark, Map<String, String> tuning) {
+        if (tuning.isEmpty()) return spark;
+        synchronized (this) {
+            if (tunedSessions == null) tunedSessions = new LruCache<>(tuningProperties.getSessionCacheSize());
+            SparkSession session = tunedSessions.get(tuning);
+            if (session == null || session.sparkContext() != spark.sparkContext()) {
+                session = spark.newSession();
+                tuning.forEach(session.conf()::set);
+                session.listenerManager().register(commitListener);
+                tunedSessions.put(tuning, session);
+            }
+            return session;
+        }
     }
 
-    private SparkDataset readS3Dataset(SparkSession spark, S3ForBindings s3, Integer limit) throws Exception {
+    SparkDataset readS3Dataset(SparkSession spark, S3ForBindings s3, Integer limit) throws Exception {
+        // Previews and /connect read a few rows, converting the whole input is not worth it
+        return readS3Dataset(spark, s3, limit, limit == null);
+    }
+
+    /**
+     * @param cache whether the reader may convert the input for later reads (SAS files)
+     */
+    SparkDataset readS3Dataset(SparkSession spark, S3ForBindings s3, Integer limit, boolean cache) throws Exception {
         String path = s3.getUrl();
-        String fileType = s3.getFiletype();
         Dataset<Row> dataset;
         try {
-            if ("csv".equals(fileType))
-                dataset = spark.read()
-                        .option("delimiter", ";")
-                        .option("header", "true")
-                        .csv(path);
-            else if ("parquet".equals(fileType)) dataset = spark.read().parquet(path);
-            else if ("sas".equals(fileType)) dataset = spark.read()
-                    .format("com.github.saurfang.sas.spark")
-                    .load(path);
-            else throw new Exception("Unknow S3 file type: " + fileType);
+            dataset = s3DatasetReaders.read(spark, s3, cache);
         } catch (Exception e) {
             throw new Exception("An error has occured while loading: " + path);
         }
+        SparkDataset sparkDataset = new SparkDataset(dataset);
+        // Lets provenance resolve the structure later on without Spark
+        schemaCache.put(Fingerprints.ofDefinition(s3), sparkDataset.getDataStructure());
         // Explore "take" for efficiency (returns rows)
-        if (limit != null) dataset = dataset.limit(limit);
-        return new SparkDataset(dataset);
+        if (limit != null) return new SparkDataset(dataset.limit(limit));
+        return sparkDataset;
     }
 
-    private SparkDataset readJDBCDataset(SparkSession spark, QueriesForBindings queriesForBindings, Integer limit) throws Exception {
+    SparkDataset readJDBCDataset(SparkSession spark, QueriesForBindings queriesForBindings, Integer limit) throws Exception {
+        return readJDBCDataset(spark, queriesForBindings, queriesForBindings.getQuery(), limit);
+    }
+
+    SparkDataset readJDBCDataset(SparkSession spark, QueriesForBindings queriesForBindings, String query, Integer limit) throws Exception {
         String jdbcPrefix = "";
         String dbType = queriesForBindings.getDbtype();
         try {
@@ -93,7 +220,9 @@ public class SparkEngine {
                 .option("url", jdbcPrefix + queriesForBindings.getUrl())
                 .option("user", queriesForBindings.getUser())
                 .option("password", queriesForBindings.getPassword())
-                .option("query", queriesForBindings.getQuery());
+                .option("query", query)
+                // Lets row counts stop early, see estimateJdbcSize
+                .option("pushDownLimit", "true");
         if (dbType.equals("postgre")) {
             dfReader.option("driver", "net.postgis.jdbc.DriverWrapper")
                     .option("driver", "org.postgresql.Driver");
@@ -107,23 +236,190 @@ public class SparkEngine {
         return new SparkDataset(dataset);
     }
 
-    public Bindings executeSpark(User user, Body body, Boolean preview) throws Exception {
+    /**
+     * Marks a binding for broadcast joins when asked to, or, without hint, when its estimated size is
+     * under the threshold. File sources come with size statistics; JDBC sources have none, so their
+     * rows are counted, up to a bound.
+     */
+    private SparkDataset hintBroadcast(SparkDataset sparkDataset, Boolean hint, boolean jdbc, Span span) {
+        if (Boolean.FALSE.equals(hint)) return sparkDataset;
+        Dataset<Row> dataset = sparkDataset.getSparkDataset();
+        if (hint == null) {
+            // Threshold of the session of the job, hence of its tuning profile; negative disables broadcasts
+            long threshold = dataset.sparkSession().sessionState().conf().autoBroadcastJoinThreshold();
+            if (threshold < 0) return sparkDataset;
+            long estimated = jdbc ? estimateJdbcSize(dataset) : estimatePlanSize(dataset);
+            if (span != null) span.attribute("estimatedBytes", estimated);
+            if (estimated > threshold) return sparkDataset;
+        }
+        if (span != null) span.attribute("broadcast", true);
+        return new SparkDataset(functions.broadcast(dataset));
+    }
+
+    private static long estimatePlanSize(Dataset<Row> dataset) {
+        scala.math.BigInt size = dataset.queryExecution().optimizedPlan().stats().sizeInBytes();
+        return size.isValidLong() ? size.toLong() : Long.MAX_VALUE;
+    }
+
+    private long estimateJdbcSize(Dataset<Row> dataset) {
+        long rows = dataset.limit((int) Math.min(broadcastMaxRows + 1, Integer.MAX_VALUE)).count();
+        if (rows > broadcastMaxRows) return Long.MAX_VALUE;
+        long rowSize = 0;
+        for (StructField field : dataset.schema().fields()) rowSize += field.dataType().defaultSize();
+        return rows * rowSize;
+    }
+
+    /**
+     * Evaluates the script on lazily bound inputs and explains each resulting dataset, without
+     * computing any result. Resolving the inputs may still run small Spark jobs: Delta inputs read
+     * their transaction log, JSON inputs and CSV inputs without a schema infer one from the files,
+     * parquet inputs read a footer, and directories of many files are listed in parallel. JDBC inputs
+     * only resolve their schema: estimating them takes a count, so those without a broadcast hint are
+     * planned as not broadcast and reported as undecided. SAS inputs are not converted to their
+     * parquet cache.
+     */
+    public ScriptExplain explain(User user, Body body) throws Exception {
+        SparkSession base = buildSparkSession();
+        SparkSession spark = tunedSession(base, tuningService.resolve(base, body, false));
+        quotaService.usePool(spark, user);
+        // Inline datasets are read from parquet files, only needed while planning
+        Path inlinePath = new Path(scratchPath + "/explain-" + UUID.randomUUID());
+        try {
+            return explain(spark, body, inlinePath);
+        } finally {
+            inlinePath.getFileSystem(spark.sparkContext().hadoopConfiguration()).delete(inlinePath, true);
+        }
+    }
+
+    private ScriptExplain explain(SparkSession spark, Body body, Path inlinePath) throws Exception {
+        Map<String, Object> parameters = Parameters.normalize(body.getParameters());
+        Bindings bindings = new SimpleBindings();
+        bindings.putAll(parameters);
+        Map<String, Long> inputBytes = new LinkedHashMap<>();
+        List<String> undecidedBroadcasts = new ArrayList<>();
+        if (body.getBindings() != null) {
+            for (Map.Entry<String, Object> entry : body.getBindings().entrySet()) {
+                if (entry.getValue() instanceof fr.insee.vtl.model.Dataset dataset) {
+                    SparkDataset sparkDataset = Utils.toSparkDataset(spark, dataset, inlinePath + "/" + entry.getKey() + ".parquet");
+                    inputBytes.put(entry.getKey(), Utils.estimatedBytes(sparkDataset.getSparkDataset()));
+                    bindings.put(entry.getKey(), sparkDataset);
+                } else bindings.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (body.getQueriesForBindings() != null) {
+            for (Map.Entry<String, QueriesForBindings> entry : body.getQueriesForBindings().entrySet()) {
+                QueriesForBindings v = entry.getValue();
+                String query = NamedQuery.inline(v.getQuery(), v.getDbtype(), parameters);
+                SparkDataset sparkDataset = readJDBCDataset(spark, v, query, null);
+                inputBytes.put(entry.getKey(), null);
+                if (v.getBroadcast() == null) undecidedBroadcasts.add(entry.getKey());
+                bindings.put(entry.getKey(), hintBroadcast(sparkDataset, Boolean.TRUE.equals(v.getBroadcast()), true, null));
+            }
+        }
+        if (body.getS3ForBindings() != null) {
+            for (Map.Entry<String, S3ForBindings> entry : body.getS3ForBindings().entrySet()) {
+                SparkDataset sparkDataset = readS3Dataset(spark, entry.getValue(), null, false);
+                inputBytes.put(entry.getKey(), Utils.estimatedBytes(sparkDataset.getSparkDataset()));
+                bindings.put(entry.getKey(), hintBroadcast(sparkDataset, entry.getValue().getBroadcast(), false, null));
+            }
+        }
+
+        Set<String> inputs = new HashSet<>(bindings.keySet());
+        ScriptEngine engine = Utils.initEngineWithSpark(bindings, spark);
+        try {
+            scriptCache.eval(engine, body.getVtlScript());
+        } catch (Exception e) {
+            throw new Exception(e);
+        }
+        Map<String, DatasetExplain> outputs = new LinkedHashMap<>();
+        engine.getContext().getBindings(ScriptContext.ENGINE_SCOPE).forEach((name, value) -> {
+            if (value instanceof PersistentDataset persistent) value = persistent.getDelegate();
+            if (value instanceof SparkDataset result && !inputs.contains(name)) {
+                outputs.put(name.replace("$PersistentDataset", ""), Utils.explain(result.getSparkDataset()));
+            }
+        });
+        ScriptExplain explain = new ScriptExplain();
+        explain.setInputBytes(inputBytes);
+        explain.setTotalInputBytes(inputBytes.values().stream().filter(Objects::nonNull).mapToLong(Long::longValue).sum());
+        explain.setUndecidedBroadcasts(undecidedBroadcasts);
+        explain.setOutputs(outputs);
+        return explain;
+    }
+
+    public Bindings executeSpark(Job job, User user, Body body, Boolean preview) throws Exception {
+        return executeSpark(job, user, body, preview, null);
+    }
+
+    /**
+     * @param sharedInputs inputs shared with the other scripts of a batch, or null
+     */
+    public Bindings executeSpark(Job job, User user, Body body, Boolean preview, SharedInputs sharedInputs) throws Exception {
+        SparkSession base = buildSparkSession();
+        Map<String, String> tuning = tuningService.resolve(base, body, preview);
+        SparkSession spark = tunedSession(base, tuning);
+        if (!tuning.isEmpty()) {
+            try (Span span = job.profile.span("tuning")) {
+                tuning.forEach(span::attribute);
+            }
+        }
+        quotaService.usePool(spark, user);
+        // Tags every Spark job of this thread, so that cancelling the job interrupts its tasks
+        String jobGroup = job.id.toString();
+        spark.sparkContext().setJobGroup(jobGroup, "trevas-lab job " + jobGroup, true);
+        job.onCancel(() -> spark.sparkContext().cancelJobGroup(jobGroup));
+        jobProfileListener.register(jobGroup, job.profile);
+        try {
+            // Inputs of a batch are only shared between scripts running with the same settings
+            return executeSpark(job, spark, body, preview, sharedInputs, tuning.toString());
+        } finally {
+            spark.sparkContext().clearJobGroup();
+        }
+    }
+
+    private Bindings executeSpark(Job job, SparkSession spark, Body body, Boolean preview, SharedInputs sharedInputs,
+                                  String inputScope) throws Exception {
         String script = body.getVtlScript();
         Map<String, QueriesForBindings> queriesForBindings = body.getQueriesForBindings();
         Map<String, S3ForBindings> s3ForBindings = body.getS3ForBindings();
-
-        SparkSession spark = buildSparkSession();
+        // Rejected before running the script rather than once its results are there
+        if (body.getMaterializations() != null) {
+            for (Map.Entry<String, Materialization> entry : body.getMaterializations().entrySet()) {
+                checkRows(entry.getKey(), entry.getValue().getRows());
+            }
+        }
 
         Bindings bindings = new SimpleBindings();
+        Map<String, Object> parameters = Parameters.normalize(body.getParameters());
+        bindings.putAll(parameters);
 
         Integer limit = preview ? 0 : null;
 
+        Bindings inline = job.takeInlineBindings();
+        if (inline != null) {
+            try (Span span = job.profile.span("load inline")) {
+                // Spark reads them back from the scratch directory of the job, which outlives its results
+                for (Map.Entry<String, Object> entry : inline.entrySet()) {
+                    if (entry.getValue() instanceof fr.insee.vtl.model.Dataset dataset) {
+                        String jobScratchPath = jobScratchPath(spark, job);
+                        if (jobScratchPath == null)
+                            throw new Exception("Inline datasets need app.materialization.scratch-path on a filesystem shared by the executors");
+                        String path = jobScratchPath + "/inline/" + entry.getKey() + ".parquet";
+                        bindings.put(entry.getKey(), Utils.toSparkDataset(spark, dataset, path));
+                        if (dataset instanceof ColumnarDataset columnar) columnar.release();
+                    } else bindings.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
         if (queriesForBindings != null) {
             queriesForBindings.forEach((k, v) -> {
-                try {
-
-                    SparkDataset sparkDataset = readJDBCDataset(spark, v, limit);
-                    bindings.put(k, sparkDataset);
+                try (Span span = job.profile.span("load " + k)) {
+                    // The Spark JDBC source cannot bind variables: parameters are written as escaped literals
+                    String query = NamedQuery.inline(v.getQuery(), v.getDbtype(), parameters);
+                    SparkDataset sparkDataset = sharedInputs == null
+                            ? readJDBCDataset(spark, v, query, limit)
+                            : sharedInputs.get(inputScope + SharedInputs.key(v, query, limit), () -> readJDBCDataset(spark, v, query, limit));
+                    bindings.put(k, preview ? sparkDataset : hintBroadcast(sparkDataset, v.getBroadcast(), true, span));
                 } catch (Exception e) {
                     logger.warn("Query loading failed: ", e);
                 }
@@ -131,9 +427,11 @@ public class SparkEngine {
         }
         if (s3ForBindings != null) {
             s3ForBindings.forEach((k, v) -> {
-                try {
-                    SparkDataset sparkDataset = readS3Dataset(spark, v, limit);
-                    bindings.put(k, sparkDataset);
+                try (Span span = job.profile.span("load " + k)) {
+                    SparkDataset sparkDataset = sharedInputs == null
+                            ? readS3Dataset(spark, v, limit)
+                            : sharedInputs.get(inputScope + SharedInputs.key(v, limit), () -> readS3Dataset(spark, v, limit));
+                    bindings.put(k, preview ? sparkDataset : hintBroadcast(sparkDataset, v.getBroadcast(), false, span));
                 } catch (Exception e) {
                     logger.warn("S3 loading failed: ", e);
 
@@ -141,37 +439,198 @@ public class SparkEngine {
             });
         }
 
+        String writePath = body.getWritePath();
+        Configuration hadoopConf = spark.sparkContext().hadoopConfiguration();
+        IncrementalPlan incrementalPlan = null;
+        if (Boolean.TRUE.equals(body.getIncremental()) && writePath != null && !preview) {
+            try (Span span = job.profile.span("incremental plan")) {
+                incrementalPlan = IncrementalPlan.build(objectMapper, hadoopConf, body);
+            }
+            script = incrementalPlan.getScript();
+            for (String name : incrementalPlan.getReused()) {
+                bindings.put(name, new SparkDataset(spark.read().parquet(writePath + "/" + name)));
+            }
+            logger.info("Incremental execution reuses {}", incrementalPlan.getReused());
+        }
+
+        Set<String> inputs = new HashSet<>(bindings.keySet());
         ScriptEngine engine = Utils.initEngineWithSpark(bindings, spark);
 
-        try {
-            engine.eval(script);
+        try (Span span = job.profile.span("eval")) {
+            scriptCache.eval(engine, script);
         } catch (Exception e) {
             throw new Exception(e);
         }
         Bindings outputBindings = engine.getContext().getBindings(ScriptContext.ENGINE_SCOPE);
+        Set<String> reused = incrementalPlan == null ? Set.of() : incrementalPlan.getReused();
+        for (String name : reused) {
+            outputBindings.put(name, new PersistentDataset((SparkDataset) outputBindings.get(name)));
+        }
 
+        // A failed write fails the job, its output saying why
         Map<String, QueriesForBindingsToSave> queriesForBindingsToSave = body.getToSave().getJdbcForBindingsToSave();
         if (null != queriesForBindingsToSave) {
-            Utils.writeSparkDatasetsJDBC(outputBindings, queriesForBindingsToSave);
+            for (Map.Entry<String, QueriesForBindingsToSave> entry : queriesForBindingsToSave.entrySet()) {
+                String name = entry.getKey();
+                try (Span span = job.profile.span("write " + name)) {
+                    SparkDataset result = Utils.persistentSparkDataset(outputBindings, name);
+                    if (result == null) continue;
+                    write(job, name, () -> Utils.writeSparkDatasetJDBC(result, entry.getValue(), SaveMode.Overwrite));
+                }
+            }
         }
 
         Map<String, S3ForBindings> s3ToSave = body.getToSave().getS3ForBindings();
         if (null != s3ToSave) {
-            Utils.writeSparkS3Datasets(outputBindings, s3ToSave, objectMapper, spark);
+            for (Map.Entry<String, S3ForBindings> entry : s3ToSave.entrySet()) {
+                String name = entry.getKey();
+                S3ForBindings s3 = entry.getValue();
+                try (Span span = job.profile.span("write " + name)) {
+                    SparkDataset result = Utils.persistentSparkDataset(outputBindings, name);
+                    if (result == null) continue;
+                    trackCommit(job, spark, name, s3.getUrl(), s3.getCommitter(), span,
+                            () -> Utils.writeSparkDataset(objectMapper, spark, s3, result));
+                }
+            }
         }
 
-        String writePath = body.getWritePath();
-        outputBindings.forEach((key, value) -> {
-            if (value instanceof PersistentDataset) {
-                String dsName = key.replace("$PersistentDataset", "");
-                SparkDataset ds = (SparkDataset) ((PersistentDataset) value).getDelegate();
-                ds.getSparkDataset().write()
-                        .mode(SaveMode.Overwrite)
-                        .parquet(writePath + "/" + dsName);
+        Set<String> written = new HashSet<>();
+        for (Map.Entry<String, Object> entry : outputBindings.entrySet()) {
+            if (entry.getValue() instanceof PersistentDataset persistent) {
+                String dsName = entry.getKey().replace("$PersistentDataset", "");
+                if (reused.contains(dsName)) continue;
+                SparkDataset ds = (SparkDataset) persistent.getDelegate();
+                try (Span span = job.profile.span("write " + dsName)) {
+                    trackCommit(job, spark, dsName, writePath + "/" + dsName, null, span,
+                            () -> ds.getSparkDataset().write()
+                                    .mode(SaveMode.Overwrite)
+                                    .parquet(writePath + "/" + dsName));
+                }
+                written.add(dsName);
             }
+        }
+        if (incrementalPlan != null) {
+            incrementalPlan.commit(objectMapper, hadoopConf, writePath, written);
+        }
+
+        // Join strategies chosen for the results, broadcast ones included, as adaptive execution left them
+        try (Span span = job.profile.span("materialize")) {
+            return Utils.materialize(outputBindings, name -> getMaterialization(body, name), jobScratchPath(spark, job),
+                    offHeap, quotaService.getMaxRows(job.user), (name, ran) -> {
+                        if (inputs.contains(name)) return;
+                        List<String> joins = Utils.joinStrategies(ran);
+                        if (!joins.isEmpty()) span.attribute(name, joins);
+                    });
+        }
+    }
+
+    /**
+     * Scratch directory of a job, null when the executors cannot all reach it.
+     */
+    private String jobScratchPath(SparkSession spark, Job job) {
+        if (!Utils.stagingIsShared(spark.sparkContext().master(), scratchPath,
+                spark.sparkContext().hadoopConfiguration().get("fs.defaultFS"))) return null;
+        return scratchPath + "/" + job.id;
+    }
+
+    /**
+     * Frees what the results of an evicted job hold on the cluster: cached datasets and the files of
+     * its scratch directory.
+     */
+    public void release(Job job) {
+        if (job.bindings != null) {
+            job.bindings.values().forEach(value -> {
+                if (value instanceof PersistentDataset persistent) value = persistent.getDelegate();
+                if (value instanceof SparkDataset sparkDataset) sparkDataset.getSparkDataset().unpersist(false);
+            });
+        }
+        if (job.mode != ExecutionMode.SPARK || SparkSession.getDefaultSession().isEmpty()) return;
+        Path path = new Path(scratchPath + "/" + job.id);
+        try {
+            path.getFileSystem(SparkSession.getDefaultSession().get().sparkContext().hadoopConfiguration()).delete(path, true);
+        } catch (IOException e) {
+            logger.warn("Scratch directory of job {} not deleted: ", job.id, e);
+        }
+    }
+
+    private interface Write {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the write of an output of the job, which is DONE once written and FAILED with the error
+     * otherwise, the error then failing the job.
+     */
+    private Output write(Job job, String name, Write write) throws Exception {
+        Output output = job.outputs.computeIfAbsent(name, k -> {
+            Output created = new Output();
+            created.location = k;
+            return created;
         });
+        output.status = Status.RUNNING;
+        try {
+            write.run();
+        } catch (Exception e) {
+            output.status = Status.FAILED;
+            output.error = ErrorSummary.of(e);
+            throw new Exception("Writing " + name + " failed", e);
+        }
+        output.status = Status.DONE;
+        return output;
+    }
+
+    /**
+     * Runs a file write and reports its committer and commit duration on the output of the job.
+     */
+    private void trackCommit(Job job, SparkSession spark, String name, String url, String committer,
+                             Span span, Write write) throws Exception {
+        String path = null;
+        try {
+            path = CommitListener.qualify(spark.sparkContext().hadoopConfiguration(), url);
+        } catch (IOException e) {
+            logger.warn("Commit of {} not tracked: ", url, e);
+        }
+        var metrics = path == null ? null : commitListener.expect(path);
+        Output output;
+        try {
+            output = write(job, name, write);
+        } catch (Exception e) {
+            if (metrics != null) commitListener.forget(path, metrics);
+            throw e;
+        }
+        if (url.startsWith("s3a://") && committersEnabled)
+            output.committer = committer == null ? committerName : committer;
+        CommitListener.Commit commit = metrics == null ? null : commitListener.await(path, metrics);
+        if (commit == null) return;
+        Map<String, Long> values = commit.metrics();
+        output.commitMillis = values.get("jobCommitTime");
+        output.files = values.get("numFiles");
+        output.bytes = values.get("numOutputBytes");
+        span.attribute("committer", output.committer);
+        span.attribute("commitMillis", output.commitMillis);
+        if (!commit.joins().isEmpty()) span.attribute("joins", commit.joins());
+    }
+
+    @PostConstruct
+    void checkDefaultRows() throws Exception {
+        checkRows("app.materialization.rows", defaultRows);
+    }
+
+    private static void checkRows(String name, Integer rows) throws Exception {
+        if (rows != null && rows < 1)
+            throw new Exception("Materialization rows of " + name + " must be positive, or unset for the row quota");
+    }
 
-        return Utils.getSparkBindings(outputBindings, 0);
+    private Materialization getMaterialization(Body body, String name) {
+        Materialization requested = body.getMaterializations() == null ? null : body.getMaterializations().get(name);
+        MaterializationPolicy policy = requested != null && requested.getPolicy() != null
+                ? requested.getPolicy()
+                : defaultPolicy;
+        String storageLevel = requested != null && requested.getStorageLevel() != null
+                ? requested.getStorageLevel()
+                : defaultStorageLevel;
+        Integer rows = requested != null && requested.getRows() != null ? requested.getRows() : defaultRows;
+        return new Materialization(policy, storageLevel, rows);
     }
 
     public ResponseEntity<EditVisualize> getJDBC(
@@ -179,8 +638,9 @@ public class SparkEngine {
             QueriesForBindings queriesForBindings) throws Exception {
 
         SparkSession spark = buildSparkSession();
+        quotaService.usePool(spark, user);
 
-        fr.insee.vtl.model.Dataset trevasDs = readJDBCDataset(spark, queriesForBindings, 100);
+        fr.insee.vtl.model.Dataset trevasDs = readJDBCDataset(spark, queriesForBindings, quotaService.capRows(user, 100));
 
         EditVisualize editVisualize = new EditVisualize();
 
@@ -208,10 +668,11 @@ public class SparkEngine {
             S3ForBindings s3ForBindings) throws Exception {
 
         SparkSession spark = buildSparkSession();
+        quotaService.usePool(spark, user);
 
         EditVisualize editVisualize = new EditVisualize();
 
-        fr.insee.vtl.model.Dataset trevasDs = readS3Dataset(spark, s3ForBindings, 100);
+        fr.insee.vtl.model.Dataset trevasDs = readS3Dataset(spark, s3ForBindings, quotaService.capRows(user, 100));
 
         List<Map<String, Object>> structure = new ArrayList<>();
         trevasDs.getDataStructure().entrySet().forEach(e -> {
@@ -228,27 +689,4 @@ public class SparkEngine {
                 .body(editVisualize);
     }
 
-    public Program getProgram(String script, String id, String name, Map<String, S3ForBindings> bindings) {
-        SparkSession spark = buildSparkSession();
-        Bindings b = new SimpleBindings();
-        if (bindings != null) {
-            bindings.forEach((k, v) -> {
-                try {
-                    SparkDataset sparkDataset = readS3Dataset(spark, v, 0);
-                    b.put(k, sparkDataset);
-                } catch (Exception e) {
-                    logger.warn("S3 loading failed: ", e);
-
-                }
-            });
-        }
-
-        ScriptEngine engine = Utils.initEngineWithSpark(b, spark);
-        try {
-            return ProvenanceListener.runWithBindings(engine, script, id, name);
-        } catch (Exception e) {
-            return ProvenanceListener.run(script, id, name);
-        }
-    }
-
 }
\ No newline at end of file
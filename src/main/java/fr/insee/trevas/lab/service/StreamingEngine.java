@@ -0,0 +1,191 @@
+package fr.insee.trevas.lab.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.model.*;
+import fr.insee.trevas.lab.utils.NamedQuery;
+import fr.insee.trevas.lab.utils.Parameters;
+import fr.insee.trevas.lab.utils.Utils;
+import fr.insee.vtl.model.PersistentDataset;
+import fr.insee.vtl.spark.SparkDataset;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.spark.api.java.function.VoidFunction2;
+import org.apache.spark.sql.*;
+import org.apache.spark.sql.streaming.DataStreamReader;
+import org.apache.spark.sql.streaming.StreamingQuery;
+import org.apache.spark.sql.streaming.Trigger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.SimpleBindings;
+import java.util.*;
+
+/**
+ * Runs a script continuously over the files landing in an S3 prefix (or a local directory).
+ * <p>
+ * The S3 binding flagged with {@code stream} is read as a file stream; the other bindings are static.
+ * Each micro-batch of new files is bound in place of the stream and the script is evaluated over it,
+ * its persistent results being appended to the outputs. Only row-level operations (filters, calcs,
+ * joins with static bindings...) therefore give the same results as a full run: aggregations only
+ * see the rows of their micro-batch.
+ * <p>
+ * A micro-batch replayed after a failure overwrites its own files: file outputs get one
+ * {@code batch=<id>} partition per micro-batch, so they are written exactly once. JDBC outputs are
+ * appended at least once, a replayed micro-batch inserting its rows again.
+ */
+@Service
+public class StreamingEngine {
+
+    private static final Logger logger = LogManager.getLogger(StreamingEngine.class);
+
+    private static final Set<String> STREAMING_FILETYPES = Set.of("csv", "parquet", "orc", "avro", "json");
+
+    private static final int PROFILE_SPANS = 500;
+
+    @Autowired
+    private SparkEngine sparkEngine;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private ScriptCache scriptCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Blocks until the stream stops: cancellation, max runtime, failure, or all files processed
+     * with a zero trigger.
+     */
+    public Bindings executeStreaming(Job job, User user, Body body) throws Exception {
+        Map<String, S3ForBindings> s3ForBindings = body.getS3ForBindings() == null ? Map.of() : body.getS3ForBindings();
+        List<String> streams = s3ForBindings.entrySet().stream()
+                .filter(e -> Boolean.TRUE.equals(e.getValue().getStream()))
+                .map(Map.Entry::getKey)
+                .toList();
+        if (streams.size() != 1)
+            throw new Exception("Streaming mode needs exactly one S3 binding with \"stream\": true");
+        String streamName = streams.get(0);
+        Streaming streaming = body.getStreaming() == null ? new Streaming() : body.getStreaming();
+        String checkpointLocation = streaming.getCheckpointLocation() != null
+                ? streaming.getCheckpointLocation()
+                : body.getWritePath() != null ? body.getWritePath() + "/_checkpoint" : null;
+        if (checkpointLocation == null)
+            throw new Exception("Streaming mode needs a checkpoint location or a write path");
+
+        SparkSession spark = sparkEngine.buildSparkSession();
+        quotaService.usePool(spark, user);
+        String jobGroup = job.id.toString();
+        spark.sparkContext().setJobGroup(jobGroup, "trevas-lab job " + jobGroup, true);
+
+        Map<String, Object> parameters = Parameters.normalize(body.getParameters());
+        Bindings staticBindings = new SimpleBindings();
+        staticBindings.putAll(parameters);
+        for (Map.Entry<String, S3ForBindings> entry : s3ForBindings.entrySet()) {
+            if (entry.getKey().equals(streamName)) continue;
+            staticBindings.put(entry.getKey(), sparkEngine.readS3Dataset(spark, entry.getValue(), null));
+        }
+        if (body.getQueriesForBindings() != null) {
+            for (Map.Entry<String, QueriesForBindings> entry : body.getQueriesForBindings().entrySet()) {
+                QueriesForBindings v = entry.getValue();
+                String query = NamedQuery.inline(v.getQuery(), v.getDbtype(), parameters);
+                staticBindings.put(entry.getKey(), sparkEngine.readJDBCDataset(spark, v, query, null));
+            }
+        }
+
+        Dataset<Row> stream = readStream(spark, s3ForBindings.get(streamName), streaming);
+        Trigger trigger = streaming.getTriggerSeconds() == null
+                ? Trigger.ProcessingTime(10_000)
+                : streaming.getTriggerSeconds() == 0
+                ? Trigger.AvailableNow()
+                : Trigger.ProcessingTime(streaming.getTriggerSeconds() * 1000);
+        // Every micro-batch adds its spans and Spark stages to the profile of a job which never ends
+        job.profile.keepLast(PROFILE_SPANS);
+        StreamingQuery query = stream.writeStream()
+                .queryName("trevas-lab-" + job.id)
+                .option("checkpointLocation", checkpointLocation)
+                .trigger(trigger)
+                .foreachBatch((VoidFunction2<Dataset<Row>, Long>) (batch, batchId) -> {
+                    try (Span span = job.profile.span("batch " + batchId)) {
+                        processBatch(body, staticBindings, streamName, batch, batchId);
+                    }
+                })
+                .start();
+        job.onCancel(() -> {
+            try {
+                query.stop();
+            } catch (Exception e) {
+                logger.warn("Stopping the stream of job {} failed: ", job.id, e);
+            }
+        });
+        try {
+            query.awaitTermination();
+        } finally {
+            spark.sparkContext().clearJobGroup();
+        }
+        return new SimpleBindings();
+    }
+
+    private Dataset<Row> readStream(SparkSession spark, S3ForBindings s3, Streaming streaming) throws Exception {
+        String filetype = s3.getFiletype();
+        if (!STREAMING_FILETYPES.contains(filetype))
+            throw new Exception("Unknow streaming file type: " + filetype);
+        DataStreamReader reader = spark.readStream().format(filetype);
+        if ("csv".equals(filetype)) {
+            // Same defaults as the batch CSV reader
+            reader.option("delimiter", ";").option("header", "true");
+        }
+        if (s3.getOptions() != null) reader.options(s3.getOptions());
+        if (streaming.getMaxFilesPerTrigger() != null)
+            reader.option("maxFilesPerTrigger", streaming.getMaxFilesPerTrigger().toString());
+        // File streams need their schema upfront: the explicit one, or the one of the files already there
+        if (s3.getSchema() != null && !s3.getSchema().isBlank()) reader.schema(s3.getSchema());
+        else reader.schema(sparkEngine.readS3Dataset(spark, s3, null).getSparkDataset().schema());
+        return reader.load(s3.getUrl());
+    }
+
+    private void processBatch(Body body, Bindings staticBindings, String streamName, Dataset<Row> batch,
+                              long batchId) throws Exception {
+        SparkSession spark = batch.sparkSession();
+        Bindings bindings = new SimpleBindings();
+        bindings.putAll(staticBindings);
+        bindings.put(streamName, new SparkDataset(batch));
+        ScriptEngine engine = Utils.initEngineWithSpark(bindings, spark);
+        scriptCache.eval(engine, body.getVtlScript());
+        Bindings outputBindings = engine.getContext().getBindings(ScriptContext.ENGINE_SCOPE);
+        String partition = "/batch=" + batchId;
+        ToSave toSave = body.getToSave();
+        if (toSave != null && toSave.getJdbcForBindingsToSave() != null) {
+            for (Map.Entry<String, QueriesForBindingsToSave> entry : toSave.getJdbcForBindingsToSave().entrySet()) {
+                SparkDataset result = Utils.persistentSparkDataset(outputBindings, entry.getKey());
+                // Failures are not swallowed either: rows of a replayed micro-batch may be appended twice
+                if (result != null) Utils.writeSparkDatasetJDBC(result, entry.getValue(), SaveMode.Append);
+            }
+        }
+        if (toSave != null && toSave.getS3ForBindings() != null) {
+            for (Map.Entry<String, S3ForBindings> entry : toSave.getS3ForBindings().entrySet()) {
+                if (!(outputBindings.get(entry.getKey()) instanceof PersistentDataset persistent))
+                    throw new Exception(entry.getKey() + " is not a Persistent datatset (affect it with \"<-\")");
+                if (!(persistent.getDelegate() instanceof SparkDataset result)) continue;
+                S3ForBindings s3 = entry.getValue().copy();
+                s3.setUrl(s3.getUrl() + partition);
+                // Failures are not swallowed: the micro-batch fails and is replayed
+                Utils.writeSparkDataset(objectMapper, spark, s3, result, SaveMode.Overwrite);
+            }
+        }
+        String writePath = body.getWritePath();
+        if (writePath == null) return;
+        for (Map.Entry<String, Object> entry : outputBindings.entrySet()) {
+            if (entry.getValue() instanceof PersistentDataset persistent
+                    && persistent.getDelegate() instanceof SparkDataset result) {
+                result.getSparkDataset().write()
+                        .mode(SaveMode.Overwrite)
+                        .parquet(writePath + "/" + entry.getKey() + partition);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.configuration.TuningProperties;
+import fr.insee.trevas.lab.model.Body;
+import fr.insee.trevas.lab.model.S3ForBindings;
+import fr.insee.trevas.lab.model.Tuning;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resolves the Spark SQL configuration of a job from its {@link Tuning}.
+ */
+@Service
+public class TuningService {
+
+    private static final Logger logger = LogManager.getLogger(TuningService.class);
+
+    @Autowired
+    private TuningProperties properties;
+
+    /**
+     * Settings to apply on top of the shared session, empty when the job is not tuned.
+     */
+    public Map<String, String> resolve(SparkSession spark, Body body, boolean preview) throws Exception {
+        Tuning tuning = body.getTuning();
+        Map<String, String> conf = new TreeMap<>();
+        String profile = tuning != null && tuning.getProfile() != null ? tuning.getProfile() : properties.getDefaultProfile();
+        if (profile != null) {
+            Map<String, String> preset = properties.getProfiles().get(profile);
+            if (preset == null) throw new Exception("Unknow tuning profile: " + profile);
+            conf.putAll(preset);
+        }
+        if (tuning != null && Boolean.TRUE.equals(tuning.getAuto())) {
+            conf.putAll(autoSize(preview ? 0 : inputBytes(spark.sparkContext().hadoopConfiguration(), body)));
+        }
+        if (tuning != null && tuning.getOverrides() != null) {
+            for (Map.Entry<String, String> override : tuning.getOverrides().entrySet()) {
+                if (!isAllowed(override.getKey()))
+                    throw new Exception("Tuning override not allowed: " + override.getKey());
+                conf.put(override.getKey(), override.getValue());
+            }
+        }
+        // Static settings (memory fractions...) belong to the SparkContext shared by every job
+        for (String key : conf.keySet()) {
+            if (!spark.conf().isModifiable(key)) throw new Exception("Not a runtime Spark SQL setting: " + key);
+        }
+        return conf;
+    }
+
+    /**
+     * Shuffle partitions of about {@code target-partition-bytes} for the measured inputs, rounded up
+     * to a power of two so that similar jobs share their session. AQE then coalesces what turns out smaller.
+     */
+    Map<String, String> autoSize(long inputBytes) {
+        long target = properties.getTargetPartitionBytes();
+        long wanted = Math.max(properties.getMinPartitions(), (inputBytes + target - 1) / target);
+        long rounded = Long.highestOneBit(Math.max(1, wanted - 1)) << 1;
+        int partitions = (int) Math.min(properties.getMaxPartitions(), Math.max(wanted, rounded));
+        Map<String, String> conf = new TreeMap<>();
+        conf.put("spark.sql.shuffle.partitions", String.valueOf(partitions));
+        conf.put("spark.sql.adaptive.enabled", "true");
+        conf.put("spark.sql.adaptive.coalescePartitions.enabled", "true");
+        conf.put("spark.sql.adaptive.advisoryPartitionSizeInBytes", String.valueOf(target));
+        conf.put("spark.sql.files.maxPartitionBytes", String.valueOf(target));
+        return conf;
+    }
+
+    /**
+     * Total size of the S3 inputs, from the file listings. JDBC inputs cannot be measured.
+     */
+    private static long inputBytes(Configuration conf, Body body) {
+        long total = 0;
+        if (body.getS3ForBindings() == null) return total;
+        for (S3ForBindings s3 : body.getS3ForBindings().values()) {
+            Path path = new Path(s3.getUrl());
+            try {
+                total += path.getFileSystem(conf).getContentSummary(path).getLength();
+            } catch (IOException e) {
+                logger.warn("Could not measure {}: ", path, e);
+            }
+        }
+        return total;
+    }
+
+    private boolean isAllowed(String key) {
+        for (String allowed : properties.getAllowedOverrides()) {
+            if (allowed.endsWith("*") ? key.startsWith(allowed.substring(0, allowed.length() - 1)) : allowed.equals(key))
+                return true;
+        }
+        return false;
+    }
+}
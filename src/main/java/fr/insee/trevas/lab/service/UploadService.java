@@ -0,0 +1,332 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import fr.insee.trevas.lab.model.Upload;
+import fr.insee.trevas.lab.model.User;
+import fr.insee.trevas.lab.utils.Utils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.spark.SparkConf;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Stages uploaded files under {@code app.upload.staging-path}, a local directory or any Hadoop
+ * filesystem (s3a://...), and returns the {@link S3ForBindings} that reads them back.
+ * <p>
+ * Multipart parts are spooled to disk by the servlet container: on a local staging path the part
+ * is moved in place, otherwise it is streamed to the target filesystem. The schema is then sniffed
+ * from the staged file (footer of a parquet file, a pass over the rows of a CSV file) and invalid
+ * files are removed.
+ * <p>
+ * The job reading an upload may run on another replica, or on executors: outside of a local master
+ * with no job queue, the staging path has to be on a shared filesystem. Staged uploads are deleted
+ * once older than {@code app.upload.ttl-hours}.
+ */
+@Service
+public class UploadService {
+
+    private static final Logger logger = LogManager.getLogger(UploadService.class);
+
+    private static final Pattern LONG = Pattern.compile("[-+]?\\d{1,18}");
+    private static final Pattern DOUBLE = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+
+    private final String stagingPath;
+    private final int sniffRows;
+    private final long ttlHours;
+    private final Configuration hadoopConf;
+    private final boolean stagingShared;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public UploadService(@Value("${app.upload.staging-path:file:///tmp/trevas-lab-uploads}") String stagingPath,
+                         @Value("${app.upload.sniff-rows:0}") int sniffRows,
+                         @Value("${app.upload.ttl-hours:24}") long ttlHours,
+                         @Value("${app.jobs.queue.type:none}") String queueType) {
+        this.stagingPath = stagingPath;
+        this.sniffRows = sniffRows;
+        this.ttlHours = ttlHours;
+        SparkConf sparkConf = Utils.loadSparkConfig(System.getenv("SPARK_CONF_DIR"));
+        this.hadoopConf = Utils.hadoopConfiguration(sparkConf);
+        String master = sparkConf.get("spark.master", "local");
+        this.stagingShared = master.startsWith("local") && "none".equals(queueType)
+                || Utils.isShared(stagingPath, hadoopConf.get("fs.defaultFS"));
+        if (!stagingShared)
+            logger.warn("Uploads disabled: {} is not shared by the replicas and the executors", stagingPath);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (ttlHours > 0) scheduler.scheduleWithFixedDelay(this::evictExpired, 1, 60, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public Upload stage(User user, MultipartFile file, String filetype) throws IOException {
+        if (!stagingShared)
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Uploads need app.upload.staging-path on a filesystem shared by the replicas and the executors");
+        String filename = file.getOriginalFilename() == null || file.getOriginalFilename().isBlank()
+                ? "upload" : new Path(file.getOriginalFilename()).getName();
+        if (filetype == null) filetype = filename.toLowerCase().endsWith(".parquet") ? "parquet" : "csv";
+        if (!"csv".equals(filetype) && !"parquet".equals(filetype))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknow upload file type: " + filetype);
+
+        String owner = user.getId() == null ? "anonymous" : user.getId();
+        Path target = new Path(new Path(new Path(stagingPath), owner), UUID.randomUUID() + "/" + filename);
+        FileSystem fs = target.getFileSystem(hadoopConf);
+        transfer(file, fs, target);
+
+        S3ForBindings binding = new S3ForBindings();
+        binding.setUrl(target.toString());
+        binding.setFiletype(filetype);
+        Upload upload = new Upload();
+        upload.setBinding(binding);
+        try {
+            if ("parquet".equals(filetype)) sniffParquet(target, upload);
+            else sniffCsv(fs, target, upload);
+        } catch (IOException | RuntimeException e) {
+            fs.delete(target.getParent(), true);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid " + filetype + " file: " + e.getMessage());
+        }
+        logger.info("Staged {} ({} bytes) at {}", filename, file.getSize(), target);
+        return upload;
+    }
+
+    /**
+     * Deletes the uploads whose files are all older than the TTL. Directory times are not used, object
+     * stores do not keep them.
+     */
+    void evictExpired() {
+        long expiry = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(ttlHours);
+        Path root = new Path(stagingPath);
+        try {
+            FileSystem fs = root.getFileSystem(hadoopConf);
+            if (!fs.exists(root)) return;
+            for (FileStatus owner : fs.listStatus(root)) {
+                if (!owner.isDirectory()) continue;
+                for (FileStatus upload : fs.listStatus(owner.getPath())) {
+                    if (upload.isDirectory() && Arrays.stream(fs.listStatus(upload.getPath()))
+                            .allMatch(file -> file.getModificationTime() < expiry)) {
+                        fs.delete(upload.getPath(), true);
+                        logger.info("Deleted expired upload {}", upload.getPath());
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Deleted concurrently by another replica
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Expired uploads not deleted: ", e);
+        }
+    }
+
+    private static void transfer(MultipartFile file, FileSystem fs, Path target) throws IOException {
+        if (fs instanceof LocalFileSystem local) {
+            java.nio.file.Path localTarget = local.pathToFile(target).toPath();
+            java.nio.file.Files.createDirectories(localTarget.getParent());
+            // Moves the spooled part when possible, copies it otherwise
+            file.transferTo(localTarget);
+            return;
+        }
+        try (InputStream in = file.getInputStream(); FSDataOutputStream out = fs.create(target, false)) {
+            in.transferTo(out);
+        }
+    }
+
+    private void sniffParquet(Path target, Upload upload) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(target, hadoopConf))) {
+            MessageType schema = reader.getFooter().getFileMetaData().getSchema();
+            List<Map<String, Object>> structure = new ArrayList<>();
+            for (Type field : schema.getFields()) {
+                structure.add(component(field.getName(), field.isPrimitive() ? parquetType(field.asPrimitiveType()) : "Object"));
+            }
+            upload.setDataStructure(structure);
+            upload.setRowCount(reader.getRecordCount());
+        }
+    }
+
+    private static String parquetType(PrimitiveType type) {
+        LogicalTypeAnnotation logicalType = type.getLogicalTypeAnnotation();
+        if (logicalType instanceof LogicalTypeAnnotation.DateLogicalTypeAnnotation) return "LocalDate";
+        return switch (type.getPrimitiveTypeName()) {
+            case INT32, INT64 -> logicalType == null || logicalType instanceof LogicalTypeAnnotation.IntLogicalTypeAnnotation
+                    ? "Long" : "Object";
+            case FLOAT, DOUBLE -> "Double";
+            case BOOLEAN -> "Boolean";
+            case BINARY -> logicalType instanceof LogicalTypeAnnotation.StringLogicalTypeAnnotation ? "String" : "Object";
+            default -> "Object";
+        };
+    }
+
+    /**
+     * Reads the header with the delimiter of the CSV reader (";"), then narrows each column to the
+     * most specific type holding all its values. The DDL schema is set on the binding, so that Spark
+     * skips its own inference pass, with the options reading the quoting the way it was sniffed.
+     */
+    private void sniffCsv(FileSystem fs, Path target, Upload upload) throws IOException {
+        try (CsvRecords records = new CsvRecords(new BufferedReader(new InputStreamReader(fs.open(target), StandardCharsets.UTF_8)))) {
+            List<String> names = records.next();
+            if (names == null) throw new IOException("empty file");
+            String[] types = new String[names.size()];
+            long rows = 0;
+            List<String> values;
+            while ((values = records.next()) != null) {
+                if (values.size() != names.size())
+                    throw new IOException("record " + (rows + 2) + " has " + values.size() + " fields, " + names.size() + " expected");
+                for (int i = 0; i < values.size(); i++) types[i] = narrow(types[i], values.get(i));
+                rows++;
+                if (sniffRows > 0 && rows >= sniffRows) break;
+            }
+            List<Map<String, Object>> structure = new ArrayList<>();
+            StringJoiner ddl = new StringJoiner(", ");
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                String type = types[i] == null ? "String" : types[i];
+                structure.add(component(name, type));
+                ddl.add("`" + name.replace("`", "``") + "` " + switch (type) {
+                    case "Long" -> "BIGINT";
+                    case "Double" -> "DOUBLE";
+                    case "Boolean" -> "BOOLEAN";
+                    default -> "STRING";
+                });
+            }
+            upload.setDataStructure(structure);
+            Map<String, String> options = new LinkedHashMap<>();
+            // Quotes are escaped by doubling them, as in the CSV exports
+            options.put("escape", "\"");
+            if (records.spansLines()) options.put("multiLine", "true");
+            upload.getBinding().setOptions(options);
+            // Row count and schema are only certain when the whole file was read
+            if (sniffRows <= 0 || rows < sniffRows) {
+                upload.setRowCount(rows);
+                upload.getBinding().setSchema(ddl.toString());
+            }
+        }
+    }
+
+    static String narrow(String current, String value) {
+        if (value.isEmpty() || "String".equals(current)) return current;
+        if ((current == null || "Long".equals(current)) && LONG.matcher(value).matches()) return "Long";
+        if ((current == null || "Long".equals(current) || "Double".equals(current)) && DOUBLE.matcher(value).matches())
+            return "Double";
+        if ((current == null || "Boolean".equals(current))
+                && ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value))) return "Boolean";
+        return "String";
+    }
+
+    private static Map<String, Object> component(String name, String type) {
+        Map<String, Object> component = new LinkedHashMap<>();
+        component.put("name", name);
+        component.put("type", type);
+        return component;
+    }
+
+    /**
+     * Records of a CSV file delimited by ";". Quoted fields may hold delimiters, line breaks and
+     * doubled quotes; unquoted fields are trimmed, empty lines skipped.
+     */
+    static class CsvRecords implements Closeable {
+
+        private final BufferedReader reader;
+        private boolean first = true;
+        private boolean spansLines;
+
+        CsvRecords(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @return the fields of the next record, null at the end of the file
+         */
+        List<String> next() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean inQuotes = false;
+            boolean empty = true;
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (first) {
+                    first = false;
+                    if (c == '\uFEFF') continue;
+                }
+                if (inQuotes) {
+                    if (c != '"') {
+                        if (c == '\n') spansLines = true;
+                        field.append((char) c);
+                        continue;
+                    }
+                    reader.mark(1);
+                    int following = reader.read();
+                    if (following == '"') {
+                        field.append('"');
+                        continue;
+                    }
+                    inQuotes = false;
+                    if (following == -1) break;
+                    reader.reset();
+                    continue;
+                }
+                if (c == '\r') continue;
+                if (c == '\n') {
+                    if (empty) continue;
+                    fields.add(quoted ? field.toString() : field.toString().trim());
+                    return fields;
+                }
+                empty = false;
+                if (c == ';') {
+                    fields.add(quoted ? field.toString() : field.toString().trim());
+                    field.setLength(0);
+                    quoted = false;
+                } else if (c == '"' && !quoted && field.toString().isBlank()) {
+                    field.setLength(0);
+                    quoted = true;
+                    inQuotes = true;
+                } else field.append((char) c);
+            }
+            if (inQuotes) throw new IOException("unterminated quoted field");
+            if (empty) return null;
+            fields.add(quoted ? field.toString() : field.toString().trim());
+            return fields;
+        }
+
+        /**
+         * Whether a quoted field of the records read so far holds a line break.
+         */
+        boolean spansLines() {
+            return spansLines;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
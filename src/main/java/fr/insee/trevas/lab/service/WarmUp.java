@@ -0,0 +1,168 @@
+package fr.insee.trevas.lab.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.configuration.WarmUpProperties;
+import fr.insee.trevas.lab.dataset.ColumnarDataset;
+import fr.insee.trevas.lab.utils.Utils;
+import fr.insee.vtl.model.Dataset;
+import fr.insee.vtl.model.PersistentDataset;
+import fr.insee.vtl.model.Structured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.SimpleBindings;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Evaluates representative scripts over the bundled crabe dataset before the application reports
+ * ready: runners complete before the readiness state switches to accepting traffic. This loads the
+ * VTL engine, fills the script cache and lets the JIT compile the in-memory code paths.
+ * Spark is not started, unless asked to once the application is ready.
+ */
+@Component
+public class WarmUp implements ApplicationRunner {
+
+    private static final Logger logger = LogManager.getLogger(WarmUp.class);
+
+    @Autowired
+    private WarmUpProperties properties;
+
+    @Autowired
+    private ScriptCache scriptCache;
+
+    @Autowired
+    private SparkEngine sparkEngine;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.isEnabled() || properties.getScripts().isEmpty()) return;
+        long start = System.nanoTime();
+        try {
+            Dataset crabe = loadCrabe();
+            for (int i = 0; i < properties.getIterations(); i++) {
+                long iterationStart = System.nanoTime();
+                for (String script : properties.getScripts()) {
+                    Bindings bindings = new SimpleBindings();
+                    bindings.put("crabe", crabe);
+                    ScriptEngine engine = Utils.initEngine(bindings);
+                    scriptCache.eval(engine, script);
+                    engine.getContext().getBindings(ScriptContext.ENGINE_SCOPE).forEach((name, value) -> {
+                        if (value instanceof PersistentDataset persistent) value = persistent.getDelegate();
+                        if (value instanceof Dataset dataset && !"crabe".equals(name))
+                            ColumnarDataset.of(dataset, false);
+                    });
+                }
+                logger.info("Warm-up iteration {} took {} ms", i + 1, (System.nanoTime() - iterationStart) / 1_000_000);
+            }
+            logger.info("Warm-up done in {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            logger.warn("Warm-up failed: ", e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        logger.info("Ready {} ms after the JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+        if (properties.isSpark()) {
+            Thread thread = new Thread(() -> {
+                long start = System.nanoTime();
+                sparkEngine.buildSparkSession();
+                logger.info("Spark session created in {} ms", (System.nanoTime() - start) / 1_000_000);
+            }, "spark-warm-up");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Reads the bundled parquet file without Spark, its roles coming from the structure file.
+     */
+    private Dataset loadCrabe() throws Exception {
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        Map<String, Dataset.Role> roles = new HashMap<>();
+        try (InputStream structure = resolver.getResource("classpath:crabe/structure/structure.json").getInputStream()) {
+            for (JsonNode component : objectMapper.readTree(structure)) {
+                roles.put(component.get("name").asText(), Dataset.Role.valueOf(component.get("role").asText()));
+            }
+        }
+        ColumnarDataset.Builder builder = null;
+        for (Resource resource : resolver.getResources("classpath:crabe/data/*.parquet")) {
+            // Resources may be inside the jar: the parquet reader needs a file
+            Path file = Files.createTempFile("crabe", ".parquet");
+            try {
+                try (InputStream in = resource.getInputStream()) {
+                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(),
+                        new org.apache.hadoop.fs.Path(file.toUri())).withConf(new Configuration()).build()) {
+                    Group group;
+                    List<Object> values = new ArrayList<>();
+                    while ((group = reader.read()) != null) {
+                        if (builder == null) builder = new ColumnarDataset.Builder(toStructure(group, roles), false);
+                        values.clear();
+                        for (int i = 0; i < group.getType().getFieldCount(); i++) values.add(value(group, i));
+                        builder.add(values);
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+        if (builder == null) throw new Exception("No crabe data to warm up with");
+        return builder.build();
+    }
+
+    private static Structured.DataStructure toStructure(Group group, Map<String, Dataset.Role> roles) {
+        List<Structured.Component> components = new ArrayList<>();
+        for (Type field : group.getType().getFields()) {
+            Class<?> type = switch (field.asPrimitiveType().getPrimitiveTypeName()) {
+                case INT32, INT64 -> Long.class;
+                case FLOAT, DOUBLE -> Double.class;
+                case BOOLEAN -> Boolean.class;
+                default -> String.class;
+            };
+            components.add(new Structured.Component(field.getName(), type,
+                    roles.getOrDefault(field.getName(), Dataset.Role.MEASURE)));
+        }
+        return new Structured.DataStructure(components);
+    }
+
+    private static Object value(Group group, int field) {
+        if (group.getFieldRepetitionCount(field) == 0) return null;
+        PrimitiveType.PrimitiveTypeName type = group.getType().getType(field).asPrimitiveType().getPrimitiveTypeName();
+        return switch (type) {
+            case INT32 -> (long) group.getInteger(field, 0);
+            case INT64 -> group.getLong(field, 0);
+            case FLOAT -> (double) group.getFloat(field, 0);
+            case DOUBLE -> group.getDouble(field, 0);
+            case BOOLEAN -> group.getBoolean(field, 0);
+            default -> group.getValueToString(field, 0);
+        };
+    }
+}
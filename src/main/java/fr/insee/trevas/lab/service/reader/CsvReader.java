@@ -0,0 +1,28 @@
+package fr.insee.trevas.lab.service.reader;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.spark.sql.DataFrameReader;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compressed files (.gz, .bz2, .zst, ...) are decoded by the Hadoop codec matching their extension.
+ */
+@Component
+public class CsvReader implements S3DatasetReader {
+
+    @Override
+    public String getFiletype() {
+        return "csv";
+    }
+
+    @Override
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3) {
+        DataFrameReader reader = spark.read()
+                .option("delimiter", ";")
+                .option("header", "true");
+        return S3DatasetReader.configure(reader, s3).csv(s3.getUrl());
+    }
+}
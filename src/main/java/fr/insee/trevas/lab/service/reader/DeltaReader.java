@@ -0,0 +1,71 @@
+package fr.insee.trevas.lab.service.reader;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.functions;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Reads a Delta-style directory (parquet files listed by a {@code _delta_log} of JSON commits)
+ * without the Delta library: commits are replayed to find the active files, which are then
+ * read as a partitioned parquet dataset. Log checkpoints and deletion vectors are not supported.
+ */
+@Component
+public class DeltaReader implements S3DatasetReader {
+
+    private static final String LOG_DIR = "_delta_log";
+    private static final String FIRST_COMMIT = "00000000000000000000.json";
+
+    @Override
+    public String getFiletype() {
+        return "delta";
+    }
+
+    @Override
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3) throws Exception {
+        String root = s3.getUrl().replaceAll("/+$", "");
+        Dataset<Row> log = spark.read().json(root + "/" + LOG_DIR + "/*.json");
+        List<String> columns = Arrays.asList(log.columns());
+        if (!columns.contains("add")) throw new Exception("No data file in Delta log: " + root);
+        Column remove = columns.contains("remove")
+                ? functions.col("remove.path")
+                : functions.lit(null).cast("string");
+        List<Row> actions = log.select(
+                functions.input_file_name().as("commit"),
+                functions.col("add.path").as("add"),
+                remove.as("remove")
+        ).collectAsList();
+        String[] files = activeFiles(root, actions).toArray(new String[0]);
+        return S3DatasetReader.configure(spark.read().option("basePath", root), s3).parquet(files);
+    }
+
+    /**
+     * Replays the (commit, added path, removed path) actions in commit order.
+     */
+    static List<String> activeFiles(String root, List<Row> actions) throws Exception {
+        if (actions.stream().noneMatch(r -> r.getString(0).endsWith(FIRST_COMMIT))) {
+            throw new Exception("Delta log of " + root + " has been truncated, checkpoints are not supported");
+        }
+        List<Row> sorted = new ArrayList<>(actions);
+        sorted.sort(Comparator.comparing(r -> r.getString(0)));
+        Set<String> active = new LinkedHashSet<>();
+        for (Row action : sorted) {
+            if (!action.isNullAt(1)) active.add(action.getString(1));
+            if (!action.isNullAt(2)) active.remove(action.getString(2));
+        }
+        if (active.isEmpty()) throw new Exception("Delta table has no active file: " + root);
+        return active.stream().map(p -> resolve(root, p)).toList();
+    }
+
+    private static String resolve(String root, String path) {
+        URI uri = URI.create(path);
+        if (uri.isAbsolute()) return path;
+        return root + "/" + uri.getPath();
+    }
+}
@@ -0,0 +1,24 @@
+package fr.insee.trevas.lab.service.reader;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.stereotype.Component;
+
+/**
+ * JSON lines files, one object per line unless the {@code multiLine} option says otherwise.
+ */
+@Component
+public class JsonReader implements S3DatasetReader {
+
+    @Override
+    public String getFiletype() {
+        return "json";
+    }
+
+    @Override
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3) {
+        return S3DatasetReader.configure(spark.read(), s3).json(s3.getUrl());
+    }
+}
@@ -0,0 +1,21 @@
+package fr.insee.trevas.lab.service.reader;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.stereotype.Component;
+
+@Component
+public class OrcReader implements S3DatasetReader {
+
+    @Override
+    public String getFiletype() {
+        return "orc";
+    }
+
+    @Override
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3) {
+        return S3DatasetReader.configure(spark.read(), s3).orc(s3.getUrl());
+    }
+}
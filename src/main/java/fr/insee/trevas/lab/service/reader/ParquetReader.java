@@ -0,0 +1,21 @@
+package fr.insee.trevas.lab.service.reader;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ParquetReader implements S3DatasetReader {
+
+    @Override
+    public String getFiletype() {
+        return "parquet";
+    }
+
+    @Override
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3) {
+        return S3DatasetReader.configure(spark.read(), s3).parquet(s3.getUrl());
+    }
+}
@@ -0,0 +1,40 @@
+package fr.insee.trevas.lab.service.reader;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.spark.sql.DataFrameReader;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+
+import java.util.Map;
+
+/**
+ * Reads an {@link S3ForBindings} into a Spark dataset.
+ * <p>
+ * Implementations must stay lazy and go through a Spark data source so that
+ * filters and projections of the VTL script are pushed down to the files.
+ */
+public interface S3DatasetReader {
+
+    String getFiletype();
+
+    Dataset<Row> read(SparkSession spark, S3ForBindings s3) throws Exception;
+
+    /**
+     * @param cache whether the reader may build a faster copy of the input for later reads, which
+     *              is not worth it for reads that only plan or preview
+     */
+    default Dataset<Row> read(SparkSession spark, S3ForBindings s3, boolean cache) throws Exception {
+        return read(spark, s3);
+    }
+
+    /**
+     * Applies the user options and, when given, the explicit DDL schema (which skips inference).
+     */
+    static DataFrameReader configure(DataFrameReader reader, S3ForBindings s3) {
+        Map<String, String> options = s3.getOptions();
+        if (options != null) reader.options(options);
+        if (s3.getSchema() != null && !s3.getSchema().isBlank()) reader.schema(s3.getSchema());
+        return reader;
+    }
+}
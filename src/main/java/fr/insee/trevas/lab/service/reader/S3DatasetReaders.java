@@ -0,0 +1,39 @@
+package fr.insee.trevas.lab.service.reader;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry of the {@link S3DatasetReader} beans, indexed by {@link S3ForBindings#getFiletype()}.
+ */
+@Component
+public class S3DatasetReaders {
+
+    private final Map<String, S3DatasetReader> readers = new HashMap<>();
+
+    public S3DatasetReaders(List<S3DatasetReader> readers) {
+        readers.forEach(reader -> this.readers.put(reader.getFiletype(), reader));
+    }
+
+    public Set<String> getFiletypes() {
+        return readers.keySet();
+    }
+
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3) throws Exception {
+        return read(spark, s3, true);
+    }
+
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3, boolean cache) throws Exception {
+        S3DatasetReader reader = readers.get(s3.getFiletype());
+        if (reader == null) throw new Exception("Unknow S3 file type: " + s3.getFiletype());
+        return reader.read(spark, s3, cache);
+    }
+}
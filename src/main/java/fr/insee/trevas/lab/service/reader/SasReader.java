@@ -0,0 +1,119 @@
+package fr.insee.trevas.lab.service.reader;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import fr.insee.trevas.lab.utils.Fingerprints;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.spark.sql.DataFrameReader;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * SAS7BDAT files are decoded in parallel splits (see the {@code minSplitSize} / {@code maxSplitSize}
+ * options of spark-sas7bdat) and, unless disabled, the decoded result is cached as parquet in
+ * {@code <url>.parquet-cache/<fingerprint>} so that later jobs skip the SAS decoding. Reads which
+ * must not pay for the conversion use the cached copy when there is one, the SAS file otherwise.
+ * <p>
+ * Jobs still running may read a superseded version: versions are only deleted once the current one
+ * is older than the grace period, as well as the conversions abandoned for that long.
+ */
+@Component
+public class SasReader implements S3DatasetReader {
+
+    private static final Logger logger = LogManager.getLogger(SasReader.class);
+
+    private static final String CACHE_SUFFIX = ".parquet-cache";
+
+    @Value("${app.sas.cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${app.sas.cache.grace-minutes:1440}")
+    private long graceMinutes;
+
+    @Value("${app.sas.max-split-size:67108864}")
+    private long maxSplitSize;
+
+    @Override
+    public String getFiletype() {
+        return "sas";
+    }
+
+    @Override
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3) throws Exception {
+        return read(spark, s3, true);
+    }
+
+    @Override
+    public Dataset<Row> read(SparkSession spark, S3ForBindings s3, boolean cache) throws Exception {
+        DataFrameReader reader = spark.read()
+                .format("com.github.saurfang.sas.spark")
+                .option("maxSplitSize", maxSplitSize);
+        S3DatasetReader.configure(reader, s3);
+        if (!cacheEnabled) return reader.load(s3.getUrl());
+
+        Configuration conf = spark.sparkContext().hadoopConfiguration();
+        Path cacheRoot = new Path(s3.getUrl().replaceAll("/+$", "") + CACHE_SUFFIX);
+        Path cachePath = new Path(cacheRoot, Fingerprints.of(conf, s3));
+        try {
+            FileSystem fs = cachePath.getFileSystem(conf);
+            if (!fs.exists(cachePath)) {
+                if (!cache) return reader.load(s3.getUrl());
+                logger.info("Caching {} as parquet in {}", s3.getUrl(), cachePath);
+                Path tmpPath = new Path(cacheRoot, "_tmp-" + UUID.randomUUID());
+                reader.load(s3.getUrl()).write().mode(SaveMode.Overwrite).parquet(tmpPath.toString());
+                if (!fs.rename(tmpPath, cachePath)) {
+                    // Another job converted the same version concurrently
+                    fs.delete(tmpPath, true);
+                }
+            }
+            if (cache) {
+                try {
+                    evictStaleVersions(fs, cacheRoot, cachePath, System.currentTimeMillis() - graceMinutes * 60_000);
+                } catch (Exception e) {
+                    logger.warn("Could not evict the stale versions of {}: ", cacheRoot, e);
+                }
+            }
+            return spark.read().parquet(cachePath.toString());
+        } catch (Exception e) {
+            logger.warn("SAS parquet cache unavailable for {}, reading SAS directly: ", s3.getUrl(), e);
+            return reader.load(s3.getUrl());
+        }
+    }
+
+    /**
+     * Deletes the other versions when the current one was written before {@code before}, and the
+     * conversions last written to before then.
+     */
+    static void evictStaleVersions(FileSystem fs, Path cacheRoot, Path current, long before) throws Exception {
+        if (lastModified(fs, current) >= before) return;
+        for (FileStatus status : fs.listStatus(cacheRoot)) {
+            Path path = status.getPath();
+            if (path.getName().equals(current.getName())) continue;
+            if (!path.getName().startsWith("_tmp-") || lastModified(fs, path) < before) fs.delete(path, true);
+        }
+    }
+
+    /**
+     * Latest modification of the files of a directory: object stores give no time to directories.
+     */
+    private static long lastModified(FileSystem fs, Path path) throws Exception {
+        long lastModified = 0;
+        RemoteIterator<LocatedFileStatus> files = fs.listFiles(path, true);
+        while (files.hasNext()) {
+            lastModified = Math.max(lastModified, files.next().getModificationTime());
+        }
+        return lastModified;
+    }
+}
@@ -0,0 +1,59 @@
+package fr.insee.trevas.lab.utils;
+
+import fr.insee.trevas.lab.model.Body;
+import fr.insee.trevas.lab.model.QueriesForBindings;
+import fr.insee.trevas.lab.model.QueriesForBindingsToSave;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Passwords of a job definition, which are never serialized with it. The job store keeps them
+ * apart, for the replica that will run a queued job.
+ */
+public class Credentials {
+
+    private static final String INPUT = "input:";
+    private static final String OUTPUT = "output:";
+    private static final String SAVE = "save:";
+
+    public static Map<String, String> of(Body body) {
+        Map<String, String> credentials = new HashMap<>();
+        if (body == null) return credentials;
+        if (body.getQueriesForBindings() != null) {
+            body.getQueriesForBindings().forEach((k, v) -> {
+                if (v != null && v.getPassword() != null) credentials.put(INPUT + k, v.getPassword());
+            });
+        }
+        if (body.getQueriesForBindingsToSave() != null) {
+            body.getQueriesForBindingsToSave().forEach((k, v) -> {
+                if (v != null && v.getPassword() != null) credentials.put(OUTPUT + k, v.getPassword());
+            });
+        }
+        if (body.getToSave() != null && body.getToSave().getJdbcForBindingsToSave() != null) {
+            body.getToSave().getJdbcForBindingsToSave().forEach((k, v) -> {
+                if (v != null && v.getPassword() != null) credentials.put(SAVE + k, v.getPassword());
+            });
+        }
+        return credentials;
+    }
+
+    public static void restore(Body body, Map<String, String> credentials) {
+        if (body == null || credentials == null) return;
+        if (body.getQueriesForBindings() != null) {
+            for (Map.Entry<String, QueriesForBindings> entry : body.getQueriesForBindings().entrySet()) {
+                if (entry.getValue() != null) entry.getValue().setPassword(credentials.get(INPUT + entry.getKey()));
+            }
+        }
+        if (body.getQueriesForBindingsToSave() != null) {
+            for (Map.Entry<String, QueriesForBindingsToSave> entry : body.getQueriesForBindingsToSave().entrySet()) {
+                if (entry.getValue() != null) entry.getValue().setPassword(credentials.get(OUTPUT + entry.getKey()));
+            }
+        }
+        if (body.getToSave() != null && body.getToSave().getJdbcForBindingsToSave() != null) {
+            for (Map.Entry<String, QueriesForBindingsToSave> entry : body.getToSave().getJdbcForBindingsToSave().entrySet()) {
+                if (entry.getValue() != null) entry.getValue().setPassword(credentials.get(SAVE + entry.getKey()));
+            }
+        }
+    }
+}
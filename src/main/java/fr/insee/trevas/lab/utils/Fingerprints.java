@@ -0,0 +1,69 @@
+package fr.insee.trevas.lab.utils;
+
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Cheap content fingerprints built from file listings (path, length and modification time),
+ * so that no data has to be read to detect a change.
+ */
+public class Fingerprints {
+
+    public static String of(Configuration conf, String url) throws IOException {
+        Path path = new Path(url);
+        FileSystem fs = path.getFileSystem(conf);
+        List<String> entries = new ArrayList<>();
+        RemoteIterator<LocatedFileStatus> files = fs.listFiles(path, true);
+        while (files.hasNext()) {
+            LocatedFileStatus file = files.next();
+            String name = file.getPath().getName();
+            // Same convention as Spark: hidden and metadata files are not part of the data
+            if (name.startsWith("_") || name.startsWith(".")) continue;
+            entries.add(file.getPath() + ":" + file.getLen() + ":" + file.getModificationTime());
+        }
+        Collections.sort(entries);
+        return hash(entries.toArray(new String[0]));
+    }
+
+    /**
+     * Fingerprint of the files of a binding and of the reader settings that change how they are decoded.
+     */
+    public static String of(Configuration conf, S3ForBindings s3) throws IOException {
+        return hash(of(conf, s3.getUrl()), ofDefinition(s3));
+    }
+
+    /**
+     * Fingerprint of where and how a binding is read, without listing its files.
+     */
+    public static String ofDefinition(S3ForBindings s3) {
+        String options = s3.getOptions() == null ? "" : new TreeMap<>(s3.getOptions()).toString();
+        return hash(s3.getUrl(), s3.getFiletype(), options, s3.getSchema());
+    }
+
+    public static String hash(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
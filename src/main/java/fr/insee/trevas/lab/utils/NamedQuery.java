@@ -0,0 +1,141 @@
+package fr.insee.trevas.lab.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQL query with {@code :name} placeholders, bound from the script parameters.
+ * Placeholders are not looked for in quoted literals and identifiers, comments, dollar-quoted
+ * bodies and {@code ::} casts, nor right after an identifier or a number ({@code arr[1:n]}).
+ * Backslashes escape quotes in the literals of MariaDB, and in the {@code E'...'} literals of PostgreSQL.
+ */
+public class NamedQuery {
+
+    private final List<String> fragments = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+
+    private NamedQuery() {
+    }
+
+    public static NamedQuery parse(String query, String dbType) {
+        boolean backslashEscapes = "mariadb".equals(dbType);
+        NamedQuery parsed = new NamedQuery();
+        StringBuilder fragment = new StringBuilder();
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            int end;
+            if (c == '\'') {
+                boolean escapes = backslashEscapes || (i > 0 && (query.charAt(i - 1) == 'E' || query.charAt(i - 1) == 'e')
+                        && (i < 2 || !Character.isJavaIdentifierPart(query.charAt(i - 2))));
+                end = quoted(query, i, '\'', escapes);
+            } else if (c == '"' || (c == '`' && backslashEscapes)) {
+                end = quoted(query, i, c, false);
+            } else if (c == '-' && i + 1 < length && query.charAt(i + 1) == '-') {
+                end = query.indexOf('\n', i);
+                end = end < 0 ? length : end;
+            } else if (c == '/' && i + 1 < length && query.charAt(i + 1) == '*') {
+                end = query.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+            } else if (c == '$' && !backslashEscapes && (i == 0 || !Character.isJavaIdentifierPart(query.charAt(i - 1)))) {
+                end = dollarQuoted(query, i);
+            } else if (c == ':' && i + 1 < length && query.charAt(i + 1) == ':') {
+                end = i + 2;
+            } else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(query.charAt(i + 1))
+                    && (i == 0 || !Character.isJavaIdentifierPart(query.charAt(i - 1)))) {
+                end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(query.charAt(end))) end++;
+                parsed.fragments.add(fragment.toString());
+                parsed.names.add(query.substring(i + 1, end));
+                fragment.setLength(0);
+                i = end;
+                continue;
+            } else {
+                end = i + 1;
+            }
+            fragment.append(query, i, end);
+            i = end;
+        }
+        parsed.fragments.add(fragment.toString());
+        return parsed;
+    }
+
+    /**
+     * End (exclusive) of the literal or identifier opened at {@code start}, doubled quotes included.
+     */
+    private static int quoted(String query, int start, char quote, boolean backslashEscapes) {
+        int i = start + 1;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (c == '\\' && backslashEscapes) i += 2;
+            else if (c == quote) return i + 1;
+            else i++;
+        }
+        return query.length();
+    }
+
+    /**
+     * End (exclusive) of the {@code $tag$...$tag$} body opened at {@code start}, or of the lone
+     * {@code $} when it does not open one ({@code $1} positional parameters).
+     */
+    private static int dollarQuoted(String query, int start) {
+        int i = start + 1;
+        while (i < query.length() && (Character.isLetterOrDigit(query.charAt(i)) || query.charAt(i) == '_')) i++;
+        if (i >= query.length() || query.charAt(i) != '$' || (i > start + 1 && Character.isDigit(query.charAt(start + 1))))
+            return start + 1;
+        String tag = query.substring(start, i + 1);
+        int close = query.indexOf(tag, i + 1);
+        return close < 0 ? query.length() : close + tag.length();
+    }
+
+    public boolean hasParameters() {
+        return !names.isEmpty();
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    public PreparedStatement prepare(Connection connection, Map<String, Object> parameters) throws Exception {
+        PreparedStatement statement = connection.prepareStatement(String.join("?", fragments));
+        try {
+            for (int i = 0; i < names.size(); i++) {
+                statement.setObject(i + 1, value(parameters, names.get(i)));
+            }
+        } catch (Exception e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    /**
+     * Query with the parameters written as literals of the dialect, see {@link Parameters#toSqlLiteral}.
+     */
+    public String inline(Map<String, Object> parameters, String dbType) throws Exception {
+        StringBuilder query = new StringBuilder(fragments.get(0));
+        for (int i = 0; i < names.size(); i++) {
+            query.append(Parameters.toSqlLiteral(value(parameters, names.get(i)), dbType));
+            query.append(fragments.get(i + 1));
+        }
+        return query.toString();
+    }
+
+    /**
+     * Query of a Spark JDBC binding, which cannot be prepared. Queries are left untouched when the
+     * script has no parameters.
+     */
+    public static String inline(String query, String dbType, Map<String, Object> parameters) throws Exception {
+        if (parameters == null || parameters.isEmpty()) return query;
+        return parse(query, dbType).inline(parameters, dbType);
+    }
+
+    private static Object value(Map<String, Object> parameters, String name) throws Exception {
+        if (!parameters.containsKey(name)) throw new Exception("Unknow parameter: " + name);
+        return parameters.get(name);
+    }
+}
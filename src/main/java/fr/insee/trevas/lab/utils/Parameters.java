@@ -0,0 +1,66 @@
+package fr.insee.trevas.lab.utils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Script parameters: named VTL scalars (integer, number, string or boolean) bound next to the datasets.
+ */
+public class Parameters {
+
+    /**
+     * Maps the JSON values onto the scalar types of the VTL engine.
+     */
+    public static Map<String, Object> normalize(Map<String, Object> parameters) throws Exception {
+        Map<String, Object> normalized = new HashMap<>();
+        if (parameters == null) return normalized;
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            normalized.put(entry.getKey(), normalize(entry.getKey(), entry.getValue()));
+        }
+        return normalized;
+    }
+
+    private static Object normalize(String name, Object value) throws Exception {
+        if (value == null || value instanceof String || value instanceof Boolean
+                || value instanceof Long || value instanceof Double) return value;
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte || value instanceof BigInteger)
+            return ((Number) value).longValue();
+        if (value instanceof Float || value instanceof BigDecimal) return ((Number) value).doubleValue();
+        throw new Exception("Unknow parameter type for " + name + ": " + value.getClass().getSimpleName());
+    }
+
+    /**
+     * SQL literal of a parameter, for the queries which cannot be prepared (Spark JDBC source).
+     * Strings never rely on escapes, whose meaning depends on the server settings: PostgreSQL gets a
+     * dollar-quoted string whose tag does not occur in the value, MariaDB a hexadecimal utf8mb4 string.
+     */
+    public static String toSqlLiteral(Object value, String dbType) throws Exception {
+        if (value == null) return "NULL";
+        if (value instanceof Boolean b) return b ? "TRUE" : "FALSE";
+        if (value instanceof Double d) {
+            if (d.isNaN() || d.isInfinite()) throw new Exception("Not a finite number: " + d);
+            return BigDecimal.valueOf(d).stripTrailingZeros().toPlainString();
+        }
+        if (value instanceof Long l) return l.toString();
+        String string = value.toString();
+        if ("postgre".equals(dbType)) {
+            String tag = "$p$";
+            for (int i = 0; string.contains(tag); i++) tag = "$p" + i + "$";
+            return tag + string + tag;
+        }
+        if ("mariadb".equals(dbType)) {
+            return "_utf8mb4 X'" + HexFormat.of().formatHex(string.getBytes(StandardCharsets.UTF_8)) + "'";
+        }
+        throw new Exception("Unsupported dbtype: " + dbType);
+    }
+
+    public static String fingerprint(Map<String, Object> parameters) {
+        if (parameters == null || parameters.isEmpty()) return "";
+        return Fingerprints.hash(new TreeMap<>(parameters).toString());
+    }
+}
@@ -0,0 +1,143 @@
+package fr.insee.trevas.lab.utils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.PrimitiveType;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Row counts, null counts and bounds of a parquet dataset, read from the file footers only.
+ * Columns whose statistics are missing in a file, or whose values Spark would decode differently
+ * (dates, decimals, timestamps...), are left out.
+ */
+public class ParquetFooters {
+
+    private long rowCount;
+    private final Map<String, ColumnStatistics> columns = new HashMap<>();
+
+    /**
+     * Footers are fetched concurrently on the executor, each one costing a round trip on object stores.
+     */
+    public static ParquetFooters read(Configuration conf, String url, ExecutorService executor) throws IOException {
+        Path path = new Path(url);
+        FileSystem fs = path.getFileSystem(conf);
+        List<Future<ParquetMetadata>> reads = new ArrayList<>();
+        try {
+            RemoteIterator<LocatedFileStatus> files = fs.listFiles(path, true);
+            while (files.hasNext()) {
+                Path file = files.next().getPath();
+                if (file.getName().startsWith("_") || file.getName().startsWith(".")) continue;
+                reads.add(executor.submit(() -> readFooter(conf, file)));
+            }
+            ParquetFooters footers = new ParquetFooters();
+            Set<String> incomplete = new HashSet<>();
+            for (Future<ParquetMetadata> read : reads) {
+                for (BlockMetaData block : read.get().getBlocks()) {
+                    footers.rowCount += block.getRowCount();
+                    for (ColumnChunkMetaData chunk : block.getColumns()) {
+                        // Nested fields have no single bound
+                        if (chunk.getPath().size() != 1) continue;
+                        String name = chunk.getPath().toDotString();
+                        if (!footers.add(name, chunk)) incomplete.add(name);
+                    }
+                }
+            }
+            incomplete.forEach(footers.columns::remove);
+            return footers;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the footers of " + url);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read a footer of " + url, e.getCause());
+        } finally {
+            reads.forEach(read -> read.cancel(true));
+        }
+    }
+
+    private static ParquetMetadata readFooter(Configuration conf, Path file) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, conf))) {
+            return reader.getFooter();
+        }
+    }
+
+    private boolean add(String name, ColumnChunkMetaData chunk) {
+        Statistics<?> statistics = chunk.getStatistics();
+        if (statistics == null || statistics.isEmpty() || !statistics.isNumNullsSet()) return false;
+        if (!isPlain(chunk.getPrimitiveType())) return false;
+        ColumnStatistics column = columns.computeIfAbsent(name, k -> new ColumnStatistics());
+        column.nullCount += statistics.getNumNulls();
+        if (statistics.hasNonNullValue()) {
+            column.min = bound(column.min, decode(statistics.genericGetMin()), -1);
+            column.max = bound(column.max, decode(statistics.genericGetMax()), 1);
+        }
+        return true;
+    }
+
+    /**
+     * Unannotated numbers and booleans, and strings: INT96 timestamps, fixed-length and raw binaries
+     * are not.
+     */
+    private static boolean isPlain(PrimitiveType type) {
+        LogicalTypeAnnotation logicalType = type.getLogicalTypeAnnotation();
+        return switch (type.getPrimitiveTypeName()) {
+            case INT32, INT64, FLOAT, DOUBLE, BOOLEAN -> logicalType == null;
+            case BINARY -> logicalType instanceof LogicalTypeAnnotation.StringLogicalTypeAnnotation;
+            default -> false;
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object bound(Object current, Object candidate, int direction) {
+        if (current == null) return candidate;
+        return Integer.signum(((Comparable) candidate).compareTo(current)) == direction ? candidate : current;
+    }
+
+    private static Object decode(Object value) {
+        if (value instanceof Binary binary) return binary.toStringUsingUTF8();
+        return value;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public ColumnStatistics getColumn(String name) {
+        return columns.get(name);
+    }
+
+    public static class ColumnStatistics {
+
+        private long nullCount;
+        private Object min;
+        private Object max;
+
+        public long getNullCount() {
+            return nullCount;
+        }
+
+        public Object getMin() {
+            return min;
+        }
+
+        public Object getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package fr.insee.trevas.lab.utils;
+
+import fr.insee.vtl.model.Structured;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Types;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes rows of VTL values to a single parquet file, one row at a time.
+ */
+public class ParquetRows {
+
+    public static MessageType schema(List<Structured.Component> components) {
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        for (Structured.Component component : components) {
+            Class<?> type = component.getType();
+            if (Long.class.equals(type)) builder.optional(PrimitiveType.PrimitiveTypeName.INT64).named(component.getName());
+            else if (Double.class.equals(type)) builder.optional(PrimitiveType.PrimitiveTypeName.DOUBLE).named(component.getName());
+            else if (Boolean.class.equals(type)) builder.optional(PrimitiveType.PrimitiveTypeName.BOOLEAN).named(component.getName());
+            else if (LocalDate.class.equals(type)) builder.optional(PrimitiveType.PrimitiveTypeName.INT32)
+                    .as(LogicalTypeAnnotation.dateType()).named(component.getName());
+            else builder.optional(PrimitiveType.PrimitiveTypeName.BINARY)
+                        .as(LogicalTypeAnnotation.stringType()).named(component.getName());
+        }
+        return builder.named("trevas");
+    }
+
+    /**
+     * @param rows values in the order of the components; SQL dates are accepted for dates
+     */
+    public static void write(List<Structured.Component> components, Iterator<? extends List<Object>> rows,
+                             OutputFile file, CompressionCodecName codec) throws IOException {
+        MessageType schema = schema(components);
+        SimpleGroupFactory groups = new SimpleGroupFactory(schema);
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(file)
+                .withType(schema)
+                .withCompressionCodec(codec)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .build()) {
+            while (rows.hasNext()) {
+                List<Object> row = rows.next();
+                Group group = groups.newGroup();
+                for (int i = 0; i < components.size(); i++) {
+                    Object value = row.get(i);
+                    if (value instanceof java.sql.Date date) value = date.toLocalDate();
+                    if (value == null) continue;
+                    String name = components.get(i).getName();
+                    Class<?> type = components.get(i).getType();
+                    if (Long.class.equals(type)) group.append(name, ((Number) value).longValue());
+                    else if (Double.class.equals(type)) group.append(name, ((Number) value).doubleValue());
+                    else if (Boolean.class.equals(type)) group.append(name, (Boolean) value);
+                    else if (LocalDate.class.equals(type)) group.append(name, (int) ((LocalDate) value).toEpochDay());
+                    else group.append(name, value.toString());
+                }
+                writer.write(group);
+            }
+        }
+    }
+}
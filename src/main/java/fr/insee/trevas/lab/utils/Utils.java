@@ -1,22 +1,42 @@
 package fr.insee.trevas.lab.utils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.dataset.ColumnarDataset;
+import fr.insee.trevas.lab.model.DatasetExplain;
+import fr.insee.trevas.lab.model.EditVisualize;
+import fr.insee.trevas.lab.model.Materialization;
 import fr.insee.trevas.lab.model.QueriesForBindingsToSave;
 import fr.insee.trevas.lab.model.S3ForBindings;
-import fr.insee.vtl.model.InMemoryDataset;
+import fr.insee.vtl.model.DataPoint;
 import fr.insee.vtl.model.PersistentDataset;
+import fr.insee.vtl.model.Structured;
 import fr.insee.vtl.spark.SparkDataset;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopOutputFile;
 import org.apache.spark.SparkConf;
+import org.apache.spark.sql.DataFrameWriter;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SaveMode;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.plans.QueryPlan;
+import org.apache.spark.sql.execution.DataSourceScanExec;
+import org.apache.spark.sql.execution.SparkPlan;
+import org.apache.spark.sql.execution.exchange.BroadcastExchangeLike;
+import org.apache.spark.sql.execution.exchange.ShuffleExchangeLike;
+import org.apache.spark.storage.StorageLevel;
+import scala.Tuple2;
 
 import javax.script.*;
+import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Path;
-import java.util.Map;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class Utils {
 
@@ -73,115 +93,289 @@ public class Utils {
         }
     }
 
-    public static Bindings getSparkBindings(Bindings input, Integer limit) {
+    /**
+     * Hadoop configuration holding the {@code spark.hadoop.*} entries, without starting Spark.
+     */
+    public static Configuration hadoopConfiguration(SparkConf sparkConf) {
+        Configuration conf = new Configuration();
+        for (Tuple2<String, String> entry : sparkConf.getAll()) {
+            if (entry._1().startsWith("spark.hadoop.")) {
+                conf.set(entry._1().substring("spark.hadoop.".length()), entry._2());
+            }
+        }
+        return conf;
+    }
+
+    /**
+     * Materializes the Spark datasets of the bindings, following the policy of each dataset.
+     *
+     * @param scratchPath job-scoped directory of the checkpointed datasets, on a filesystem shared by
+     *                    the executors, or null when there is none
+     * @param maxRows     row quota of the user: collecting more rows than it fails, unless the
+     *                    materialization asks for fewer
+     * @param ran         called with the cached and collected datasets once they ran, when their
+     *                    adaptive plans are final
+     */
+    public static Bindings materialize(Bindings input, Function<String, Materialization> materializations,
+                                       String scratchPath, boolean offHeap, int maxRows,
+                                       BiConsumer<String, Dataset<Row>> ran) {
         Bindings output = new SimpleBindings();
         input.forEach((k, v) -> {
-            if (!k.startsWith("$")) {
-                if ((v instanceof PersistentDataset) || (v instanceof SparkDataset)) {
-                    String name = k;
-                    SparkDataset spDs = null;
-                    if (v instanceof PersistentDataset) {
-                        fr.insee.vtl.model.Dataset ds = ((PersistentDataset) v).getDelegate();
-                        name = name + "$PersistentDataset";
-                        spDs = (SparkDataset) ds;
-                    }
-                    if (v instanceof SparkDataset) {
-                        spDs = (SparkDataset) v;
+            if (k.startsWith("$")) return;
+            SparkDataset spDs;
+            String name = k;
+            if (v instanceof PersistentDataset persistent && persistent.getDelegate() instanceof SparkDataset delegate) {
+                spDs = delegate;
+                name = k + "$PersistentDataset";
+            } else if (v instanceof SparkDataset sparkDataset) {
+                spDs = sparkDataset;
+            } else return;
+            Dataset<Row> sparkDs = spDs.getSparkDataset();
+            Materialization materialization = materializations.apply(k);
+            switch (materialization.getPolicy()) {
+                case LAZY -> output.put(name, spDs);
+                case CACHE -> {
+                    Dataset<Row> cached = sparkDs.persist(StorageLevel.fromString(materialization.getStorageLevel()));
+                    cached.count();
+                    ran.accept(k, cached);
+                    output.put(name, new SparkDataset(cached));
+                }
+                case CHECKPOINT -> {
+                    if (scratchPath == null)
+                        throw new IllegalStateException("Checkpointing " + k
+                                + " needs app.materialization.scratch-path on a filesystem shared by the executors");
+                    String path = scratchPath + "/" + k;
+                    sparkDs.write().mode(SaveMode.Overwrite).parquet(path);
+                    output.put(name, new SparkDataset(sparkDs.sparkSession().read().parquet(path)));
+                }
+                case COLLECT -> {
+                    Integer rows = materialization.getRows();
+                    boolean capped = rows == null || rows > maxRows;
+                    // One more row than the quota tells whether it is exceeded
+                    Dataset<Row> limited = sparkDs.limit(!capped ? rows : maxRows < Integer.MAX_VALUE ? maxRows + 1 : maxRows);
+                    ColumnarDataset collected = collect(limited, offHeap);
+                    ran.accept(k, limited);
+                    if (capped && collected.size() > maxRows) {
+                        collected.release();
+                        throw new IllegalStateException("Quota exceeded: " + k + " has more than " + maxRows + " rows");
                     }
-                    Dataset<Row> sparkDs = (spDs).getSparkDataset();
-                    if (limit != null) {
-                        SparkDataset sparkDataset = new SparkDataset(sparkDs.limit(limit));
-                        InMemoryDataset im = new InMemoryDataset(
-                                sparkDataset.getDataPoints(),
-                                sparkDataset.getDataStructure());
-                        output.put(name, im);
-                    } else output.put(name, new SparkDataset(sparkDs)); // useless
+                    output.put(name, collected);
                 }
             }
         });
         return output;
     }
 
-    public static void writeSparkDatasetsJDBC(Bindings bindings,
-                                              Map<String, QueriesForBindingsToSave> queriesForBindingsToSave
-    ) {
-        queriesForBindingsToSave.forEach((name, values) -> {
-            if (!bindings.containsKey(name)) {
-                try {
-                    throw new Exception(name + " is not defined in script");
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            Object ds = bindings.get(name);
-            if (!(ds instanceof PersistentDataset)) {
-                try {
-                    throw new Exception(name + " is not a Persistent datatset (affect it with \"<-\")");
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            fr.insee.vtl.model.Dataset dataset = ((PersistentDataset) bindings.get(name)).getDelegate();
-            if (dataset instanceof SparkDataset) {
-                String jdbcPrefix = "";
-                try {
-                    Dataset<Row> dsSpark = ((SparkDataset) dataset).getSparkDataset();
-                    jdbcPrefix = getJDBCPrefix(values.getDbtype());
-                    dsSpark.write()
-                            .mode(SaveMode.Overwrite)
-                            .format("jdbc")
-                            .option("url", jdbcPrefix + values.getUrl())
-                            .option("dbtable", values.getTable())
-                            .option("user", values.getUser())
-                            .option("password", values.getPassword())
-                            .save();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+    /**
+     * First rows and structure of a result, as shown by the UI.
+     */
+    public static EditVisualize toEditVisualize(fr.insee.vtl.model.Dataset dataset, int limit) {
+        List<Map<String, Object>> structure = new ArrayList<>();
+        dataset.getDataStructure().values().forEach(component -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", component.getName());
+            row.put("type", component.getType().getSimpleName());
+            row.put("role", component.getRole().toString());
+            structure.add(row);
         });
+        List<DataPoint> dataPoints = dataset instanceof SparkDataset sparkDataset
+                ? collect(sparkDataset.getSparkDataset().limit(limit), false).getDataPoints()
+                : dataset.getDataPoints();
+        EditVisualize editVisualize = new EditVisualize();
+        editVisualize.setDataStructure(structure);
+        editVisualize.setDataPoints(new ArrayList<>(dataPoints.subList(0, Math.min(limit, dataPoints.size()))));
+        return editVisualize;
     }
 
-    public static void writeSparkS3Datasets(Bindings bindings, Map<String, S3ForBindings> s3toSave,
-                                            ObjectMapper objectMapper,
-                                            SparkSession spark) {
-        s3toSave.forEach((name, values) -> {
-            Object ds = bindings.get(name);
-            if (!(ds instanceof PersistentDataset)) {
-                try {
-                    throw new Exception(name + " is not a Persistent datatset (affect it with \"<-\")");
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            fr.insee.vtl.model.Dataset dataset = ((PersistentDataset) bindings.get(name)).getDelegate();
-            if (dataset instanceof SparkDataset) {
-                try {
-                    writeSparkDataset(objectMapper, spark, values, (SparkDataset) dataset);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Join operators of the physical plan of a dataset (BroadcastHashJoin, SortMergeJoin...). Adaptive
+     * plans only hold their final joins once the dataset ran.
+     */
+    public static List<String> joinStrategies(Dataset<Row> dataset) {
+        return joinStrategies(dataset.queryExecution().executedPlan());
+    }
+
+    public static List<String> joinStrategies(SparkPlan plan) {
+        return joinStrategies(planNodes(plan));
+    }
+
+    private static List<String> joinStrategies(List<QueryPlan<?>> nodes) {
+        List<String> joins = new ArrayList<>();
+        for (QueryPlan<?> node : nodes) {
+            String name = node.nodeName();
+            if (name.contains("Join") || name.equals("CartesianProduct")) joins.add(name);
+        }
+        return joins;
+    }
+
+    /**
+     * Plans and estimates of a dataset, computed without running any Spark job.
+     */
+    public static DatasetExplain explain(Dataset<Row> dataset) {
+        SparkPlan physicalPlan = dataset.queryExecution().executedPlan();
+        List<QueryPlan<?>> nodes = planNodes(physicalPlan);
+        DatasetExplain explain = new DatasetExplain();
+        explain.setOptimizedPlan(dataset.queryExecution().optimizedPlan().toString());
+        explain.setPhysicalPlan(physicalPlan.toString());
+        explain.setEstimatedBytes(estimatedBytes(dataset));
+        explain.setShuffles((int) nodes.stream().filter(n -> n instanceof ShuffleExchangeLike).count());
+        explain.setBroadcasts((int) nodes.stream().filter(n -> n instanceof BroadcastExchangeLike).count());
+        explain.setJoins(joinStrategies(nodes));
+        List<Map<String, String>> scans = new ArrayList<>();
+        for (QueryPlan<?> node : nodes) {
+            if (!(node instanceof DataSourceScanExec scan)) continue;
+            Map<String, String> metadata = new TreeMap<>();
+            metadata.put("node", scan.nodeName());
+            scala.collection.Iterator<Tuple2<String, String>> entries = scan.metadata().iterator();
+            while (entries.hasNext()) {
+                Tuple2<String, String> entry = entries.next();
+                metadata.put(entry._1(), entry._2());
             }
-        });
+            scans.add(metadata);
+        }
+        explain.setScans(scans);
+        return explain;
+    }
+
+    /**
+     * Size estimate of the optimized plan, null when Spark has no statistics to go by.
+     */
+    public static Long estimatedBytes(Dataset<Row> dataset) {
+        scala.math.BigInt size = dataset.queryExecution().optimizedPlan().stats().sizeInBytes();
+        long unknown = dataset.sparkSession().sessionState().conf().defaultSizeInBytes();
+        if (!size.isValidLong() || size.toLong() >= unknown) return null;
+        return size.toLong();
+    }
+
+    private static List<QueryPlan<?>> planNodes(QueryPlan<?> plan) {
+        List<QueryPlan<?>> nodes = new ArrayList<>();
+        collectNodes(plan, nodes);
+        return nodes;
+    }
+
+    private static void collectNodes(QueryPlan<?> plan, List<QueryPlan<?>> nodes) {
+        nodes.add(plan);
+        // Adaptive plans hold their current plan as an inner child
+        scala.collection.Iterator<?> children = plan.children().iterator();
+        while (children.hasNext()) collectNodes((QueryPlan<?>) children.next(), nodes);
+        scala.collection.Iterator<?> innerChildren = plan.innerChildren().iterator();
+        while (innerChildren.hasNext()) {
+            Object innerChild = innerChildren.next();
+            if (innerChild instanceof QueryPlan<?> innerPlan) collectNodes(innerPlan, nodes);
+        }
+    }
+
+    /**
+     * Streams the rows to the driver straight into columns.
+     */
+    public static ColumnarDataset collect(Dataset<Row> sparkDs, boolean offHeap) {
+        Structured.DataStructure structure = new SparkDataset(sparkDs).getDataStructure();
+        int[] indexes = structure.keySet().stream().mapToInt(sparkDs.schema()::fieldIndex).toArray();
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder(structure, offHeap);
+        List<Object> values = new ArrayList<>(indexes.length);
+        Iterator<Row> rows = sparkDs.toLocalIterator();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            values.clear();
+            for (int index : indexes) values.add(row.get(index));
+            builder.add(values);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Driver-side dataset as a DataFrame. The rows are streamed to a parquet file at path, which Spark
+     * then reads like any other input: the data never goes through the plan (a local relation would be
+     * serialized with every task) and stays on the driver heap only as long as the source does.
+     * The file has to outlive the DataFrame, the caller deletes it.
+     */
+    public static SparkDataset toSparkDataset(SparkSession spark, fr.insee.vtl.model.Dataset dataset, String path)
+            throws IOException {
+        List<Structured.Component> components = new ArrayList<>(dataset.getDataStructure().values());
+        Map<String, fr.insee.vtl.model.Dataset.Role> roles = new HashMap<>();
+        for (Structured.Component component : components) {
+            roles.put(component.getName(), component.getRole());
+        }
+        Configuration conf = spark.sparkContext().hadoopConfiguration();
+        ParquetRows.write(components, dataset.getDataPoints().iterator(), HadoopOutputFile.fromPath(new org.apache.hadoop.fs.Path(path), conf),
+                CompressionCodecName.SNAPPY);
+        return new SparkDataset(spark.read().parquet(path), roles);
+    }
+
+    /**
+     * Spark dataset of a persistent result, null when another engine evaluated it.
+     */
+    public static SparkDataset persistentSparkDataset(Bindings bindings, String name) throws Exception {
+        if (!bindings.containsKey(name)) throw new Exception(name + " is not defined in script");
+        if (!(bindings.get(name) instanceof PersistentDataset persistent))
+            throw new Exception(name + " is not a Persistent datatset (affect it with \"<-\")");
+        return persistent.getDelegate() instanceof SparkDataset sparkDataset ? sparkDataset : null;
+    }
+
+    public static void writeSparkDatasetJDBC(SparkDataset dataset, QueriesForBindingsToSave values, SaveMode mode) throws Exception {
+        dataset.getSparkDataset().write()
+                .mode(mode)
+                .format("jdbc")
+                .option("url", getJDBCPrefix(values.getDbtype()) + values.getUrl())
+                .option("dbtable", values.getTable())
+                .option("user", values.getUser())
+                .option("password", values.getPassword())
+                .save();
     }
 
     public static void writeSparkDataset(ObjectMapper objectMapper, SparkSession spark, S3ForBindings s3, SparkDataset dataset) throws Exception {
+        writeSparkDataset(objectMapper, spark, s3, dataset, SaveMode.Overwrite);
+    }
+
+    public static void writeSparkDataset(ObjectMapper objectMapper, SparkSession spark, S3ForBindings s3, SparkDataset dataset,
+                                         SaveMode mode) throws Exception {
         Dataset<Row> sparkDataset = dataset.getSparkDataset();
         String path = s3.getUrl();
         String fileType = s3.getFiletype();
+        DataFrameWriter<Row> writer = sparkDataset.write().mode(mode);
+        // Writer options end up in the Hadoop configuration of the write job
+        if (s3.getCommitter() != null) {
+            Configuration hadoopConf = spark.sparkContext().hadoopConfiguration();
+            if (isStagingCommitter(s3.getCommitter()) && !stagingIsShared(spark.sparkContext().master(),
+                    hadoopConf.get("fs.s3a.committer.staging.tmp.path"), hadoopConf.get("fs.defaultFS")))
+                throw new Exception("Committer " + s3.getCommitter()
+                        + " needs fs.s3a.committer.staging.tmp.path on a filesystem shared by the executors");
+            writer = writer.option("fs.s3a.committer.name", s3.getCommitter());
+        }
         if ("csv".equals(fileType))
-            sparkDataset.write()
-                    .mode(SaveMode.Overwrite)
+            writer
                     .option("delimiter", ";")
                     .option("header", "true")
                     .csv(path);
         else if ("parquet".equals(fileType))
-            sparkDataset.write()
-                    .mode(SaveMode.Overwrite)
-                    .parquet(path);
+            writer.parquet(path);
         else throw new Exception("Unknow S3 file type: " + fileType);
     }
 
+    public static boolean isStagingCommitter(String committer) {
+        return "directory".equals(committer) || "partitioned".equals(committer);
+    }
+
+    /**
+     * Whether the staging directory of the S3A staging committers is visible to the driver and to every
+     * executor. It lives on the default filesystem unless qualified, which is the local disk of each
+     * pod in a cluster.
+     */
+    public static boolean stagingIsShared(String master, String stagingPath, String defaultFs) {
+        if (master == null || master.startsWith("local")) return true;
+        return isShared(stagingPath, defaultFs);
+    }
+
+    /**
+     * Whether the path, resolved against the default filesystem when not qualified, is on another
+     * filesystem than the local disk.
+     */
+    public static boolean isShared(String path, String defaultFs) {
+        String scheme = path == null ? null : URI.create(path).getScheme();
+        if (scheme == null) scheme = defaultFs == null ? "file" : URI.create(defaultFs).getScheme();
+        return scheme != null && !"file".equals(scheme);
+    }
+
     public static String getJDBCPrefix(String dbType) throws Exception {
         if (dbType.equals("postgre")) return "jdbc:postgresql://";
         if (dbType.equals("mariadb")) return "jdbc:mysql://";
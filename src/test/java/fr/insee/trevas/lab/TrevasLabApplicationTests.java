@@ -4,6 +4,7 @@ import fr.insee.vtl.spark.SparkDataset;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
 import org.apache.spark.sql.SparkSession;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -17,6 +18,8 @@ import javax.script.ScriptException;
 import javax.script.SimpleBindings;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 @SpringBootTest
 class TrevasLabApplicationTests {
 
@@ -73,4 +76,38 @@ class TrevasLabApplicationTests {
         engine.getContext().getAttribute("sas_out");
     }
 
+    /**
+     * Against a local MinIO: docker run -p 9000:9000 minio/minio server /data, with a "trevas-lab" bucket.
+     */
+    @Disabled
+    @Test
+    void s3aCommitters() {
+        SparkSession spark = SparkSession.builder()
+                .appName("vtl-lab")
+                .master("local")
+                .config("spark.hadoop.fs.s3a.endpoint", "http://localhost:9000")
+                .config("spark.hadoop.fs.s3a.access.key", "minioadmin")
+                .config("spark.hadoop.fs.s3a.secret.key", "minioadmin")
+                .config("spark.hadoop.fs.s3a.path.style.access", "true")
+                .config("spark.hadoop.mapreduce.outputcommitter.factory.scheme.s3a",
+                        "org.apache.hadoop.fs.s3a.commit.S3ACommitterFactory")
+                .config("spark.hadoop.fs.s3a.committer.magic.enabled", "true")
+                .config("spark.sql.sources.commitProtocolClass",
+                        "org.apache.spark.internal.io.cloud.PathOutputCommitProtocol")
+                .config("spark.sql.parquet.output.committer.class",
+                        "org.apache.spark.internal.io.cloud.BindingParquetOutputCommitter")
+                .getOrCreate();
+        Dataset<Row> ds = spark.range(1000).toDF();
+        for (String committer : List.of("directory", "magic")) {
+            String path = "s3a://trevas-lab/committers/" + committer;
+            ds.write()
+                    .mode(SaveMode.Overwrite)
+                    .option("fs.s3a.committer.name", committer)
+                    .parquet(path);
+            // S3A committers write a JSON summary in _SUCCESS, the classic one an empty file
+            String success = spark.read().text(path + "/_SUCCESS").collectAsList().toString();
+            assertTrue(success.contains("\"committer\" : \"" + committer + "\""), success);
+        }
+    }
+
 }
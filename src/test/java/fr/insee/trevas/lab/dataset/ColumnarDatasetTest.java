@@ -0,0 +1,110 @@
+package fr.insee.trevas.lab.dataset;
+
+import fr.insee.vtl.model.Dataset;
+import fr.insee.vtl.model.Structured;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnarDatasetTest {
+
+    @TempDir
+    Path directory;
+
+    private static final Structured.DataStructure STRUCTURE = new Structured.DataStructure(List.of(
+            new Structured.Component("id", Long.class, Dataset.Role.IDENTIFIER),
+            new Structured.Component("x", Double.class, Dataset.Role.MEASURE),
+            new Structured.Component("label", String.class, Dataset.Role.MEASURE),
+            new Structured.Component("flag", Boolean.class, Dataset.Role.MEASURE)));
+
+    private static ColumnarDataset.Builder fill(ColumnarDataset.Builder builder, int rows) {
+        for (int i = 0; i < rows; i++) {
+            builder.add(Arrays.asList((long) i, i % 5 == 0 ? null : i / 2.0, "v" + (i % 10), i % 2 == 0));
+        }
+        return builder;
+    }
+
+    private static void assertRows(ColumnarDataset dataset, int rows) {
+        assertEquals(rows, dataset.size());
+        for (int i = 0; i < rows; i += 97) {
+            List<Object> row = dataset.getDataPoints().get(i);
+            assertEquals((long) i, row.get(0));
+            if (i % 5 == 0) assertNull(row.get(1));
+            else assertEquals(i / 2.0, row.get(1));
+            assertEquals("v" + (i % 10), row.get(2));
+            assertEquals(i % 2 == 0, row.get(3));
+        }
+    }
+
+    private long files() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void columnsGrowPastTheirInitialCapacity() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            assertRows(fill(new ColumnarDataset.Builder(STRUCTURE, offHeap), 5000).build(), 5000);
+        }
+    }
+
+    @Test
+    void spilledDatasetsAreReadBack() throws Exception {
+        ColumnarDataset dataset = fill(new ColumnarDataset.Builder(STRUCTURE, false), 3000).build();
+        long before = dataset.residentBytes();
+        dataset.spill(directory.resolve("job.col"));
+        assertTrue(dataset.residentBytes() < before);
+        assertRows(dataset, 3000);
+        dataset.release();
+        assertEquals(0, files());
+    }
+
+    @Test
+    void buildersKeepGrowingOnceSpilled() throws Exception {
+        ColumnarDataset dataset = fill(new ColumnarDataset.Builder(STRUCTURE, false)
+                .spillPast(1024, directory.resolve("inline.col")), 20000).build();
+        // id, x and label codes
+        assertEquals(3, files());
+        assertRows(dataset, 20000);
+        dataset.release();
+        assertEquals(0, files());
+    }
+
+    @Test
+    void discardedBuildersLeaveNoFile() throws Exception {
+        fill(new ColumnarDataset.Builder(STRUCTURE, false).spillPast(1024, directory.resolve("inline.col")), 5000)
+                .discard();
+        assertEquals(0, files());
+    }
+
+    @Test
+    void buildersStopPastTheirLimit() {
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder(STRUCTURE, false).limitTo(100_000);
+        assertThrows(ColumnarDataset.LimitExceededException.class, () -> fill(builder, 100_000));
+        // Spilled columns do not count
+        fill(new ColumnarDataset.Builder(STRUCTURE, false).spillPast(1024, directory.resolve("inline.col"))
+                .limitTo(100_000), 100_000).build().release();
+        assertRows(fill(new ColumnarDataset.Builder(STRUCTURE, false).limitTo(1_000_000), 5000).build(), 5000);
+    }
+
+    @Test
+    void buffersGrowUpToTheLargestWholeCapacity() {
+        assertEquals(2048 * Long.BYTES, Column.PrimitiveColumn.grow(1024 * Long.BYTES, 1024, Long.BYTES));
+        // Doubling 1 GiB would overflow an int
+        int max = Integer.MAX_VALUE / Long.BYTES * Long.BYTES;
+        assertEquals(max, Column.PrimitiveColumn.grow(1 << 30, (1 << 30) / Long.BYTES, Long.BYTES));
+        assertThrows(IllegalStateException.class,
+                () -> Column.PrimitiveColumn.grow(max, max / Long.BYTES, Long.BYTES));
+    }
+}
@@ -0,0 +1,81 @@
+package fr.insee.trevas.lab.dataset;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import fr.insee.vtl.model.DataPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.script.Bindings;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InlineBindingsDeserializerTest {
+
+    @TempDir
+    Path spillDirectory;
+
+    private ObjectMapper mapper(long spillThresholdBytes) {
+        return new ObjectMapper().registerModule(new SimpleModule()
+                .addDeserializer(Bindings.class, new InlineBindingsDeserializer(false, spillThresholdBytes, spillDirectory)));
+    }
+
+    private static String dataset(int rows) {
+        StringBuilder json = new StringBuilder("{\"ds\": {\"dataStructure\": [" +
+                "{\"name\": \"id\", \"type\": \"INTEGER\", \"role\": \"IDENTIFIER\"}," +
+                "{\"name\": \"label\", \"type\": \"STRING\", \"role\": \"MEASURE\"}," +
+                "{\"name\": \"x\", \"type\": \"NUMBER\", \"role\": \"MEASURE\"}," +
+                "{\"name\": \"day\", \"type\": \"DATE\", \"role\": \"MEASURE\"}" +
+                "], \"dataPoints\": [");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) json.append(',');
+            json.append("[").append(i).append(", \"l").append(i % 7).append("\", ")
+                    .append(i % 3 == 0 ? "null" : i + ".5").append(", \"2024-01-01\"]");
+        }
+        return json.append("]}, \"n\": 3}").toString();
+    }
+
+    private long spilledFiles() throws Exception {
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void datasetsAndScalarsAreRead() throws Exception {
+        Bindings bindings = mapper(0).readValue(dataset(10), Bindings.class);
+        assertEquals(3L, bindings.get("n"));
+        ColumnarDataset dataset = (ColumnarDataset) bindings.get("ds");
+        assertEquals(10, dataset.size());
+        DataPoint point = dataset.getDataPoints().get(4);
+        assertEquals(List.of(4L, "l4", 4.5, LocalDate.of(2024, 1, 1)), List.copyOf(point));
+        assertNull(dataset.getDataPoints().get(3).get(2));
+    }
+
+    @Test
+    void largeDatasetsSpillWhileRead() throws Exception {
+        Bindings bindings = mapper(1024).readValue(dataset(5000), Bindings.class);
+        ColumnarDataset dataset = (ColumnarDataset) bindings.get("ds");
+        assertTrue(spilledFiles() > 0);
+        assertEquals(List.of(4999L, "l1", 4999.5, LocalDate.of(2024, 1, 1)), List.copyOf(dataset.getDataPoints().get(4999)));
+        assertEquals(2000L, dataset.getDataPoints().get(2000).get(0));
+
+        dataset.release();
+        assertEquals(0, spilledFiles());
+    }
+
+    @Test
+    void rejectedDatasetsLeaveNoFile() throws Exception {
+        String json = dataset(5000).replace("[4000, ", "[4000, 1, ");
+        assertThrows(Exception.class, () -> mapper(1024).readValue(json, Bindings.class));
+        assertEquals(0, spilledFiles());
+    }
+}
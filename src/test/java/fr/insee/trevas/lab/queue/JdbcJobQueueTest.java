@@ -0,0 +1,47 @@
+package fr.insee.trevas.lab.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcJobQueueTest {
+
+    private static String url() {
+        return "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+    }
+
+    @Test
+    void jobsAreClaimedOnce() throws Exception {
+        String url = url();
+        JdbcJobQueue first = new JdbcJobQueue(url, "", "", "first", 60000);
+        JdbcJobQueue second = new JdbcJobQueue(url, "", "", "second", 60000);
+        UUID id = UUID.randomUUID();
+        first.enqueue(id);
+
+        assertEquals(Optional.of(id), first.claim(0));
+        assertTrue(second.claim(0).isEmpty());
+        first.ack(id);
+        assertTrue(second.claim(0).isEmpty());
+    }
+
+    @Test
+    void expiredClaimsAreClaimedAgain() throws Exception {
+        String url = url();
+        JdbcJobQueue crashed = new JdbcJobQueue(url, "", "", "crashed", 20);
+        JdbcJobQueue other = new JdbcJobQueue(url, "", "", "other", 20);
+        UUID id = UUID.randomUUID();
+        crashed.enqueue(id);
+
+        assertEquals(Optional.of(id), crashed.claim(0));
+        Thread.sleep(50);
+        assertEquals(Optional.of(id), other.claim(0));
+        // The acknowledgement of a lost claim does not remove the job
+        crashed.ack(id);
+        other.release(id);
+        assertEquals(Optional.of(id), other.claim(0));
+    }
+}
@@ -0,0 +1,62 @@
+package fr.insee.trevas.lab.repository;
+
+import fr.insee.trevas.lab.model.Body;
+import fr.insee.trevas.lab.model.Job;
+import fr.insee.trevas.lab.model.Status;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryJobRepositoryTest {
+
+    private static InMemoryJobRepository repository() {
+        InMemoryJobRepository repository = new InMemoryJobRepository();
+        ReflectionTestUtils.setField(repository, "statusRetentionHours", 24L);
+        return repository;
+    }
+
+    private static Job finished(long finishedAt) {
+        Job job = new Job();
+        job.definition = new Body();
+        job.transition(Status.DONE);
+        job.finishedAt = finishedAt;
+        return job;
+    }
+
+    @Test
+    void finishedJobsAreStrippedThenForgotten() {
+        InMemoryJobRepository repository = repository();
+        long now = System.currentTimeMillis();
+        Job recent = finished(now);
+        Job expired = finished(now - TimeUnit.HOURS.toMillis(2));
+        Job forgotten = finished(now - TimeUnit.HOURS.toMillis(25));
+        Job running = new Job();
+        List.of(recent, expired, forgotten, running).forEach(repository::save);
+
+        repository.evictFinished(now - TimeUnit.HOURS.toMillis(1));
+
+        assertSame(recent, repository.findById(recent.id).orElseThrow());
+        Job summary = repository.findById(expired.id).orElseThrow();
+        assertEquals(Status.DONE, summary.status);
+        assertNull(summary.definition);
+        assertTrue(repository.findById(forgotten.id).isEmpty());
+        assertSame(running, repository.findById(running.id).orElseThrow());
+    }
+
+    @Test
+    void cancelRequestsOfTheGivenJobs() {
+        InMemoryJobRepository repository = repository();
+        Job job = new Job();
+        repository.save(job);
+        repository.requestCancel(job.id);
+        assertEquals(Set.of(job.id), repository.cancelRequested(List.of(job.id, new Job().id)));
+    }
+}
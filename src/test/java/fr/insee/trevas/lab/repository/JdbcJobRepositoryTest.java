@@ -0,0 +1,152 @@
+package fr.insee.trevas.lab.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.model.Body;
+import fr.insee.trevas.lab.model.Job;
+import fr.insee.trevas.lab.model.QueriesForBindings;
+import fr.insee.trevas.lab.model.Status;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcJobRepositoryTest {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private static String url() {
+        return "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+    }
+
+    private static JdbcJobRepository repository(String url, String key) throws Exception {
+        return new JdbcJobRepository(new ObjectMapper(), url, "", "", 60000, key);
+    }
+
+    private static Job job() {
+        QueriesForBindings queries = new QueriesForBindings();
+        queries.setUrl("localhost/db");
+        queries.setPassword("s3cr3t");
+        queries.setQuery("SELECT 1");
+        queries.setDbtype("postgre");
+        Body body = new Body();
+        body.setVtlScript("ds := input;");
+        body.setQueriesForBindings(Map.of("input", queries));
+        Job job = new Job();
+        job.definition = body;
+        return job;
+    }
+
+    private static String[] row(String url, UUID id) throws Exception {
+        try (Connection connection = DriverManager.getConnection(url, "", "");
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT payload, credentials FROM trevas_job WHERE id = ?")) {
+            statement.setString(1, id.toString());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                assertTrue(resultSet.next());
+                return new String[]{resultSet.getString(1), resultSet.getString(2)};
+            }
+        }
+    }
+
+    @Test
+    void passwordsAreSealedApartFromThePayload() throws Exception {
+        String url = url();
+        JdbcJobRepository repository = repository(url, KEY);
+        Job job = job();
+        repository.saveNow(job);
+
+        String[] row = row(url, job.id);
+        assertFalse(row[0].contains("s3cr3t"));
+        assertFalse(row[1].contains("s3cr3t"));
+
+        // Read back as another replica would
+        JdbcJobRepository other = repository(url, KEY);
+        Job stored = other.findById(job.id).orElseThrow();
+        assertEquals("s3cr3t", stored.definition.getQueriesForBindings().get("input").getPassword());
+        repository.close();
+        other.close();
+    }
+
+    @Test
+    void finishedJobsDropTheirPasswords() throws Exception {
+        String url = url();
+        JdbcJobRepository repository = repository(url, KEY);
+        Job job = job();
+        repository.saveNow(job);
+        job.status = Status.DONE;
+        repository.saveNow(job);
+
+        assertNull(row(url, job.id)[1]);
+        repository.close();
+    }
+
+    @Test
+    void passwordsAreNotStoredWithoutKey() throws Exception {
+        String url = url();
+        JdbcJobRepository repository = repository(url, "");
+        assertFalse(repository.keepsCredentials());
+        Job job = job();
+        repository.saveNow(job);
+
+        assertNull(row(url, job.id)[1]);
+        assertNull(repository.findById(job.id).orElseThrow().definition.getQueriesForBindings().get("input").getPassword());
+        repository.close();
+    }
+
+    @Test
+    void credentialsAreBoundToTheirJob() throws Exception {
+        JdbcJobRepository repository = repository(url(), KEY);
+        Job job = job();
+        String sealed = repository.seal(job);
+        assertEquals(Map.of("input:input", "s3cr3t"), repository.open(job.id, sealed));
+        assertNull(repository.open(UUID.randomUUID(), sealed));
+        repository.close();
+    }
+
+    @Test
+    void expiredLeasesFailTheJob() throws Exception {
+        JdbcJobRepository repository = repository(url(), KEY);
+        Job gone = job();
+        gone.owner = "gone";
+        gone.status = Status.RUNNING;
+        Job alive = job();
+        alive.owner = "alive";
+        alive.status = Status.RUNNING;
+        repository.saveNow(gone);
+        repository.saveNow(alive);
+
+        Thread.sleep(50);
+        repository.heartbeat("alive");
+        repository.expireLeases(25, "Lease expired");
+
+        assertEquals(Status.FAILED, repository.findById(gone.id).orElseThrow().status);
+        assertEquals(Status.RUNNING, repository.findById(alive.id).orElseThrow().status);
+        repository.close();
+    }
+
+    @Test
+    void cancelRequestsAreReadInOneQuery() throws Exception {
+        JdbcJobRepository repository = repository(url(), KEY);
+        Job cancelled = job();
+        Job running = job();
+        repository.saveNow(cancelled);
+        repository.saveNow(running);
+        repository.requestCancel(cancelled.id);
+
+        assertEquals(Set.of(cancelled.id), repository.cancelRequested(List.of(cancelled.id, running.id, UUID.randomUUID())));
+        assertEquals(Set.of(), repository.cancelRequested(List.of()));
+        repository.close();
+    }
+}
@@ -0,0 +1,39 @@
+package fr.insee.trevas.lab.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryEngineTest {
+
+    private static ResultSet rows(int count) {
+        int[] read = {0};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if ("next".equals(method.getName())) return read[0]++ < count;
+                    return null;
+                });
+    }
+
+    @Test
+    void resultsWithinTheQuotaAreRead() throws Exception {
+        ResultSet resultSet = InMemoryEngine.withRowQuota(rows(3), 3);
+        assertTrue(resultSet.next());
+        assertTrue(resultSet.next());
+        assertTrue(resultSet.next());
+        assertFalse(resultSet.next());
+    }
+
+    @Test
+    void resultsPastTheQuotaFail() throws Exception {
+        ResultSet resultSet = InMemoryEngine.withRowQuota(rows(4), 3);
+        for (int i = 0; i < 3; i++) assertTrue(resultSet.next());
+        assertThrows(SQLException.class, resultSet::next);
+    }
+}
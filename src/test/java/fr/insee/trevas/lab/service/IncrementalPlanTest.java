@@ -0,0 +1,96 @@
+package fr.insee.trevas.lab.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.trevas.lab.model.Body;
+import fr.insee.trevas.lab.model.S3ForBindings;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncrementalPlanTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Configuration conf = new Configuration();
+
+    @TempDir
+    Path directory;
+
+    private Body body(String script) throws Exception {
+        Path input = Files.createDirectories(directory.resolve("input"));
+        Files.writeString(input.resolve("part-0.csv"), "id,x\n1,2\n");
+        S3ForBindings s3 = new S3ForBindings();
+        s3.setUrl(input.toUri().toString());
+        s3.setFiletype("csv");
+        Body body = new Body();
+        body.setVtlScript(script);
+        body.setS3ForBindings(Map.of("ds", s3));
+        body.setWritePath(directory.resolve("output").toUri().toString());
+        return body;
+    }
+
+    @Test
+    void statementsIgnoreCommentsAndQuotedSemicolons() {
+        assertEquals(List.of("a := ds[filter x = \";\"]", "'b;c' <- a"),
+                IncrementalPlan.statements("// a; b\na := ds[filter x = \";\"]; /* ; */\n'b;c' <- a;\n\n"));
+        assertEquals(List.of(), IncrementalPlan.statements(" /* only */ // comments"));
+    }
+
+    @Test
+    void persistentAssignmentsOfTheStepLabel() {
+        assertTrue(IncrementalPlan.isPersistent("a", "/* kept */ a <- ds;"));
+        assertTrue(IncrementalPlan.isPersistent("a", "'a'<-ds"));
+        assertFalse(IncrementalPlan.isPersistent("a", "a := ds[calc y := x <- 1]"));
+        assertFalse(IncrementalPlan.isPersistent("a", "// a <- ds\na := ds"));
+    }
+
+    @Test
+    void unchangedPersistentStepsAreReused() throws Exception {
+        Body body = body("a <- ds[calc y := x + 1];\nb := a[keep id, y];");
+        IncrementalPlan first = IncrementalPlan.build(objectMapper, conf, body);
+        assertEquals(Set.of(), first.getReused());
+        assertTrue(first.getScript().contains("a <- ds"));
+
+        Files.createDirectories(directory.resolve("output").resolve("a"));
+        first.commit(objectMapper, conf, body.getWritePath(), Set.of("a"));
+
+        IncrementalPlan second = IncrementalPlan.build(objectMapper, conf, body);
+        assertEquals(Set.of("a"), second.getReused());
+        assertEquals("b := a[keep id, y];", second.getScript());
+    }
+
+    @Test
+    void changedInputsInvalidateTheirConsumers() throws Exception {
+        Body body = body("a <- ds[calc y := x + 1];\nb := a[keep id, y];");
+        Files.createDirectories(directory.resolve("output").resolve("a"));
+        IncrementalPlan.build(objectMapper, conf, body).commit(objectMapper, conf, body.getWritePath(), Set.of("a"));
+
+        Files.writeString(directory.resolve("input").resolve("part-1.csv"), "id,x\n2,3\n");
+        IncrementalPlan plan = IncrementalPlan.build(objectMapper, conf, body);
+        assertEquals(Set.of(), plan.getReused());
+        assertTrue(plan.getScript().contains("a <- ds"));
+    }
+
+    @Test
+    void statementsOutsideOfTheGraphRunInFull() throws Exception {
+        String script = "define operator plus_one (v integer) returns integer is v + 1 end define operator;\n"
+                + "a <- ds[calc y := plus_one(x)];";
+        Body body = body(script);
+        Files.createDirectories(directory.resolve("output").resolve("a"));
+        IncrementalPlan.build(objectMapper, conf, body).commit(objectMapper, conf, body.getWritePath(), Set.of("a"));
+
+        IncrementalPlan plan = IncrementalPlan.build(objectMapper, conf, body);
+        assertEquals(Set.of(), plan.getReused());
+        assertEquals(script, plan.getScript());
+    }
+}
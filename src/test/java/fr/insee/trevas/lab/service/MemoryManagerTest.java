@@ -0,0 +1,58 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.dataset.ColumnarDataset;
+import fr.insee.vtl.model.Dataset;
+import fr.insee.vtl.model.Structured;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryManagerTest {
+
+    @TempDir
+    Path directory;
+
+    private static Bindings results(int rows) {
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder(new Structured.DataStructure(List.of(
+                new Structured.Component("id", Long.class, Dataset.Role.IDENTIFIER))), false);
+        for (long i = 0; i < rows; i++) builder.add(List.of(i));
+        Bindings bindings = new SimpleBindings();
+        bindings.put("ds", builder.build());
+        return bindings;
+    }
+
+    private long files() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void jobsPastTheirLimitFail() {
+        MemoryManager memoryManager = new MemoryManager(0, 1024, directory.toString(), false);
+        Exception e = assertThrows(Exception.class, () -> memoryManager.track(UUID.randomUUID(), results(10_000)));
+        assertEquals("Job results exceed the memory limit of 1024 bytes", e.getMessage());
+    }
+
+    @Test
+    void untrackedResultsLeaveNoFile() throws Exception {
+        // Any result is over the budget, hence spilled
+        MemoryManager memoryManager = new MemoryManager(1, 0, directory.toString(), false);
+        UUID jobId = UUID.randomUUID();
+        memoryManager.track(jobId, results(10_000));
+        assertTrue(files() > 0);
+        memoryManager.untrack(jobId);
+        assertEquals(0, files());
+    }
+}
@@ -0,0 +1,56 @@
+package fr.insee.trevas.lab.service;
+
+import fr.insee.trevas.lab.configuration.TuningProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TuningServiceTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private static TuningService service(long targetPartitionBytes, int minPartitions, int maxPartitions) {
+        TuningProperties properties = new TuningProperties();
+        properties.setTargetPartitionBytes(targetPartitionBytes);
+        properties.setMinPartitions(minPartitions);
+        properties.setMaxPartitions(maxPartitions);
+        TuningService service = new TuningService();
+        ReflectionTestUtils.setField(service, "properties", properties);
+        return service;
+    }
+
+    private static int partitions(TuningService service, long inputBytes) {
+        return Integer.parseInt(service.autoSize(inputBytes).get("spark.sql.shuffle.partitions"));
+    }
+
+    @Test
+    void partitionsAreRoundedUpToPowersOfTwo() {
+        TuningService service = service(128 * MB, 8, 2048);
+        assertEquals(16, partitions(service, 1500 * MB));
+        assertEquals(16, partitions(service, 2048 * MB));
+        assertEquals(32, partitions(service, 2049 * MB));
+    }
+
+    @Test
+    void partitionsStayWithinBounds() {
+        TuningService service = service(128 * MB, 8, 2048);
+        assertEquals(8, partitions(service, 0));
+        assertEquals(8, partitions(service, 128 * MB));
+        assertEquals(2048, partitions(service, 1024 * 1024 * MB));
+        // The minimum is rounded up like any count, the maximum is never exceeded
+        assertEquals(16, partitions(service(128 * MB, 10, 2048), MB));
+        assertEquals(1000, partitions(service(128 * MB, 8, 1000), 1024 * 1024 * MB));
+    }
+
+    @Test
+    void adaptiveExecutionTargetsThePartitionSize() {
+        Map<String, String> conf = service(64 * MB, 8, 2048).autoSize(MB);
+        assertEquals("true", conf.get("spark.sql.adaptive.enabled"));
+        assertEquals("true", conf.get("spark.sql.adaptive.coalescePartitions.enabled"));
+        assertEquals(String.valueOf(64 * MB), conf.get("spark.sql.adaptive.advisoryPartitionSizeInBytes"));
+        assertEquals(String.valueOf(64 * MB), conf.get("spark.sql.files.maxPartitionBytes"));
+    }
+}
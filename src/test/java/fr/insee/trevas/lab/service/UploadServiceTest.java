@@ -0,0 +1,60 @@
+package fr.insee.trevas.lab.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadServiceTest {
+
+    private static UploadService.CsvRecords records(String csv) {
+        return new UploadService.CsvRecords(new BufferedReader(new StringReader(csv)));
+    }
+
+    @Test
+    void quotedFieldsKeepTheirDelimiters() throws IOException {
+        UploadService.CsvRecords records = records("\uFEFFid;label\r\n1;\"a;b\"\r\n\r\n2; \"say \"\"hi\"\"\" \n3;plain ");
+        assertEquals(List.of("id", "label"), records.next());
+        assertEquals(List.of("1", "a;b"), records.next());
+        assertEquals(List.of("2", "say \"hi\" "), records.next());
+        assertEquals(List.of("3", "plain"), records.next());
+        assertNull(records.next());
+        assertFalse(records.spansLines());
+    }
+
+    @Test
+    void quotedFieldsMaySpanLines() throws IOException {
+        UploadService.CsvRecords records = records("id;label\n1;\"first\nsecond\"\n");
+        records.next();
+        assertEquals(List.of("1", "first\nsecond"), records.next());
+        assertNull(records.next());
+        assertTrue(records.spansLines());
+    }
+
+    @Test
+    void unterminatedQuotesAreInvalid() throws IOException {
+        UploadService.CsvRecords records = records("id;label\n1;\"open\n");
+        records.next();
+        assertThrows(IOException.class, records::next);
+    }
+
+    @Test
+    void columnsNarrowToTheMostSpecificType() {
+        assertEquals("Long", UploadService.narrow(null, "12"));
+        assertEquals("Double", UploadService.narrow("Long", "1.5"));
+        assertEquals("Double", UploadService.narrow("Double", "3"));
+        assertEquals("Boolean", UploadService.narrow(null, "TRUE"));
+        assertEquals("String", UploadService.narrow("Boolean", "1"));
+        assertEquals("String", UploadService.narrow("Long", "12a"));
+        assertEquals("Long", UploadService.narrow("Long", ""));
+        assertNull(UploadService.narrow(null, ""));
+    }
+}
@@ -0,0 +1,50 @@
+package fr.insee.trevas.lab.service.reader;
+
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeltaReaderTest {
+
+    private static final String ROOT = "s3a://bucket/table";
+
+    private static Row action(int version, String add, String remove) {
+        return RowFactory.create(String.format("%s/_delta_log/%020d.json", ROOT, version), add, remove);
+    }
+
+    @Test
+    void commitsAreReplayedInOrder() throws Exception {
+        // Rows come in no particular order from Spark
+        List<Row> actions = List.of(
+                action(2, "part-2.parquet", null),
+                action(2, null, "part-0.parquet"),
+                action(0, "part-0.parquet", null),
+                action(10, "part-0.parquet", null),
+                action(1, "year=2024/part-1.parquet", null),
+                action(10, null, "part-2.parquet"));
+        assertEquals(List.of(ROOT + "/year=2024/part-1.parquet", ROOT + "/part-0.parquet"),
+                DeltaReader.activeFiles(ROOT, actions));
+    }
+
+    @Test
+    void pathsAreDecodedUnlessAbsolute() throws Exception {
+        List<Row> actions = List.of(
+                action(0, "city=Saint%20Denis/part-0.parquet", null),
+                action(0, "s3a://other/part-1.parquet", null));
+        assertEquals(List.of(ROOT + "/city=Saint Denis/part-0.parquet", "s3a://other/part-1.parquet"),
+                DeltaReader.activeFiles(ROOT, actions));
+    }
+
+    @Test
+    void truncatedOrEmptyLogsAreRejected() {
+        assertThrows(Exception.class, () -> DeltaReader.activeFiles(ROOT, List.of(action(11, "part-0.parquet", null))));
+        assertThrows(Exception.class, () -> DeltaReader.activeFiles(ROOT, List.of(
+                action(0, "part-0.parquet", null),
+                action(1, null, "part-0.parquet"))));
+    }
+}
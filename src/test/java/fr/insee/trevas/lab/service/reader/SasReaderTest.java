@@ -0,0 +1,63 @@
+package fr.insee.trevas.lab.service.reader;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SasReaderTest {
+
+    private static final long HOUR = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    private Path version(String name, long modified) throws IOException {
+        Path file = Files.createDirectories(directory.resolve(name)).resolve("part-0.parquet");
+        Files.writeString(file, name);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return file.getParent();
+    }
+
+    private void evict(String current, long before) throws Exception {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        SasReader.evictStaleVersions(fs, new org.apache.hadoop.fs.Path(directory.toUri()),
+                new org.apache.hadoop.fs.Path(directory.resolve(current).toUri()), before);
+    }
+
+    @Test
+    void supersededVersionsAreKeptDuringTheGracePeriod() throws Exception {
+        long now = System.currentTimeMillis();
+        Path old = version("old", now - 48 * HOUR);
+        Path tmp = version("_tmp-1", now - 48 * HOUR);
+        Path current = version("current", now - HOUR);
+
+        evict("current", now - 24 * HOUR);
+        assertTrue(Files.exists(old));
+        assertTrue(Files.exists(tmp));
+        assertTrue(Files.exists(current));
+    }
+
+    @Test
+    void supersededVersionsAndAbandonedConversionsAreEvicted() throws Exception {
+        long now = System.currentTimeMillis();
+        Path old = version("old", now - 72 * HOUR);
+        Path abandoned = version("_tmp-1", now - 48 * HOUR);
+        Path running = version("_tmp-2", now - HOUR);
+        Path current = version("current", now - 30 * HOUR);
+
+        evict("current", now - 24 * HOUR);
+        assertFalse(Files.exists(old));
+        assertFalse(Files.exists(abandoned));
+        assertTrue(Files.exists(running));
+        assertTrue(Files.exists(current));
+    }
+}
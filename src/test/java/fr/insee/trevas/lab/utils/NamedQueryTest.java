@@ -0,0 +1,75 @@
+package fr.insee.trevas.lab.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NamedQueryTest {
+
+    private static final Map<String, Object> PARAMETERS = Map.of("year", 2024L, "name", "x");
+
+    @Test
+    void placeholdersAreInlined() throws Exception {
+        assertEquals("SELECT * FROM t WHERE y = 2024 AND n = $p$x$p$",
+                NamedQuery.inline("SELECT * FROM t WHERE y = :year AND n = :name", "postgre", PARAMETERS));
+    }
+
+    @Test
+    void queriesWithoutParametersAreUntouched() throws Exception {
+        String query = "SELECT a FROM t WHERE b = :unknown";
+        assertEquals(query, NamedQuery.inline(query, "postgre", Map.of()));
+        assertEquals(query, NamedQuery.inline(query, "postgre", null));
+    }
+
+    @Test
+    void unknownParametersAreRejected() {
+        assertThrows(Exception.class, () -> NamedQuery.inline("SELECT :missing", "postgre", PARAMETERS));
+    }
+
+    @Test
+    void castsAreKept() {
+        assertEquals(List.of("year"), NamedQuery.parse("SELECT a::text FROM t WHERE y = :year::int", "postgre").getNames());
+    }
+
+    @Test
+    void quotedLiteralsAreSkipped() {
+        assertFalse(NamedQuery.parse("SELECT ':x', 'it''s :y', \":z\" FROM t", "postgre").hasParameters());
+    }
+
+    @Test
+    void backslashEscapedStringsAreSkipped() {
+        assertEquals(List.of("year"), NamedQuery.parse("SELECT 'a\\' :x' FROM t WHERE y = :year", "mariadb").getNames());
+        assertEquals(List.of("year"), NamedQuery.parse("SELECT E'a\\' :x' FROM t WHERE y = :year", "postgre").getNames());
+        // Standard PostgreSQL strings do not escape with backslashes
+        assertEquals(List.of("year"), NamedQuery.parse("SELECT 'a\\' FROM t WHERE y = :year", "postgre").getNames());
+    }
+
+    @Test
+    void commentsAreSkipped() {
+        assertEquals(List.of("year"), NamedQuery.parse("""
+                -- filter on :word
+                SELECT a /* :other
+                 still a comment */ FROM t WHERE y = :year""", "postgre").getNames());
+    }
+
+    @Test
+    void arraySlicesAreKept() {
+        assertEquals(List.of("year"), NamedQuery.parse("SELECT arr[1:n], arr[a:b] FROM t WHERE y = :year", "postgre").getNames());
+    }
+
+    @Test
+    void dollarQuotedBodiesAreSkipped() {
+        assertEquals(List.of("year"), NamedQuery.parse("SELECT $$ :a $$, $tag$ ' :b $tag$ FROM t WHERE y = :year", "postgre").getNames());
+        assertEquals(List.of("year"), NamedQuery.parse("SELECT $1 FROM t WHERE y = :year", "postgre").getNames());
+    }
+
+    @Test
+    void backtickIdentifiersAreSkipped() {
+        assertEquals(List.of("year"), NamedQuery.parse("SELECT `a:b` FROM t WHERE y = :year", "mariadb").getNames());
+    }
+}
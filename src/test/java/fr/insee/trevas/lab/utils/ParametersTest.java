@@ -0,0 +1,45 @@
+package fr.insee.trevas.lab.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParametersTest {
+
+    @Test
+    void scalarLiterals() throws Exception {
+        assertEquals("NULL", Parameters.toSqlLiteral(null, "postgre"));
+        assertEquals("TRUE", Parameters.toSqlLiteral(true, "mariadb"));
+        assertEquals("42", Parameters.toSqlLiteral(42L, "postgre"));
+        assertEquals("0.00001", Parameters.toSqlLiteral(1e-5, "postgre"));
+        assertEquals("10000000000000000000000", Parameters.toSqlLiteral(1e22, "mariadb"));
+    }
+
+    @Test
+    void nonFiniteNumbersAreRejected() {
+        assertThrows(Exception.class, () -> Parameters.toSqlLiteral(Double.NaN, "postgre"));
+        assertThrows(Exception.class, () -> Parameters.toSqlLiteral(Double.POSITIVE_INFINITY, "mariadb"));
+        assertThrows(Exception.class, () -> Parameters.toSqlLiteral(Double.NEGATIVE_INFINITY, "mariadb"));
+    }
+
+    @Test
+    void postgreStringsAreDollarQuoted() throws Exception {
+        assertEquals("$p$it's$p$", Parameters.toSqlLiteral("it's", "postgre"));
+        assertEquals("$p$a\\' OR 1=1 --$p$", Parameters.toSqlLiteral("a\\' OR 1=1 --", "postgre"));
+        // The tag never occurs in the value
+        assertEquals("$p1$x$p$$p0$y$p1$", Parameters.toSqlLiteral("x$p$$p0$y", "postgre"));
+    }
+
+    @Test
+    void mariadbStringsAreHexEncoded() throws Exception {
+        assertEquals("_utf8mb4 X'5c27204f5220313d31202d2d'", Parameters.toSqlLiteral("\\' OR 1=1 --", "mariadb"));
+        assertEquals("_utf8mb4 X'c3a9'", Parameters.toSqlLiteral("\u00e9", "mariadb"));
+        assertEquals("_utf8mb4 X''", Parameters.toSqlLiteral("", "mariadb"));
+    }
+
+    @Test
+    void unknownDialectIsRejected() {
+        assertThrows(Exception.class, () -> Parameters.toSqlLiteral("x", "oracle"));
+    }
+}
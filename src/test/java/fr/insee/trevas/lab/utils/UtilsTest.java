@@ -0,0 +1,26 @@
+package fr.insee.trevas.lab.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UtilsTest {
+
+    @Test
+    void stagingDirectoryMustBeShared() {
+        assertTrue(Utils.stagingIsShared("local[*]", null, null));
+        assertFalse(Utils.stagingIsShared("k8s://https://kubernetes", null, null));
+        assertFalse(Utils.stagingIsShared("k8s://https://kubernetes", "/tmp/staging", "file:///"));
+        assertFalse(Utils.stagingIsShared("k8s://https://kubernetes", "file:///tmp/staging", "hdfs://nn"));
+        assertTrue(Utils.stagingIsShared("k8s://https://kubernetes", "hdfs://nn/tmp/staging", null));
+        assertTrue(Utils.stagingIsShared("k8s://https://kubernetes", "/tmp/staging", "hdfs://nn"));
+    }
+
+    @Test
+    void localPathsAreNotShared() {
+        assertFalse(Utils.isShared("file:///tmp/trevas-lab-uploads", null));
+        assertFalse(Utils.isShared("/tmp/trevas-lab-uploads", null));
+        assertTrue(Utils.isShared("s3a://bucket/trevas-lab-uploads", "file:///"));
+    }
+}